@@ -0,0 +1,92 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.collect.Lists;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Runs all benchmarks and writes their results to a single JSON file, so that runs of different
+ * releases can be compared.
+ *
+ * The benchmarks of shared state, {@link CacheBenchmark} and {@link RandomNumberBenchmark}, are
+ * run once for every power of two number of threads up to the number of processors, and once at
+ * that number; {@link WorkEngineBenchmark} is run on a single thread.
+ *
+ * Usage: BenchmarkMain result.json [JMH options, such as -f 1 -wi 3 -i 5]
+ */
+public class BenchmarkMain {
+  private static final Logger log = Logger.getLogger(BenchmarkMain.class.getCanonicalName());
+
+  public static void main(final String[] args) throws CommandLineOptionException,
+      FileNotFoundException, RunnerException {
+    if (args.length < 1) {
+      System.err.println("Usage: BenchmarkMain result.json [JMH options]");
+      System.exit(1);
+    }
+    final String resultFile = args[0];
+    final CommandLineOptions jmhOptions =
+        new CommandLineOptions(Arrays.copyOfRange(args, 1, args.length));
+
+    final List<RunResult> results = Lists.newArrayList();
+    results.addAll(new Runner(new OptionsBuilder()
+        .parent(jmhOptions)
+        .include(WorkEngineBenchmark.class.getSimpleName())
+        .threads(1)
+        .build()).run());
+    for (final int threads : getThreadCounts()) {
+      results.addAll(new Runner(new OptionsBuilder()
+          .parent(jmhOptions)
+          .include(CacheBenchmark.class.getSimpleName())
+          .include(RandomNumberBenchmark.class.getSimpleName())
+          .threads(threads)
+          .build()).run());
+    }
+
+    final PrintStream out = new PrintStream(resultFile);
+    try {
+      ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+    } finally {
+      out.close();
+    }
+    log.info(String.format("Wrote %d benchmark results to %s.", results.size(), resultFile));
+  }
+
+  /** Returns 1, 2, 4 and so on up to the number of processors, followed by that number */
+  private static List<Integer> getThreadCounts() {
+    final int processors = Runtime.getRuntime().availableProcessors();
+    final List<Integer> threadCounts = Lists.newArrayList();
+    for (int threads = 1; threads < processors; threads *= 2) {
+      threadCounts.add(threads);
+    }
+    threadCounts.add(processors);
+    return threadCounts;
+  }
+}
@@ -0,0 +1,111 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.primitives.Ints;
+
+import org.arbeitspferde.friesian.utility.CacheType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures updates and reads of every {@link Cache} implementation.  The cache is shared by all
+ * benchmark threads, so {@link BenchmarkMain} runs it at increasing thread counts to expose
+ * contention.  Caches are filled before measuring, and indices are drawn uniformly by a
+ * per-thread generator, as {@link PartitionedListWorkEngine#cache()} does with its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CacheBenchmark {
+  @Param({"HARD_REFERENCE", "LOCK_FREE", "OFF_HEAP", "MAPPED_FILE", "MAP_MAKER", "TINY_LFU"})
+  private CacheType cacheType;
+
+  @Param({"1000"})
+  private int cacheSize;
+
+  @Param({"1000"})
+  private int listSize;
+
+  private Cache<List<Integer>> cache;
+  private List<Integer> workList;
+
+  @Setup
+  public void setUp() throws IOException {
+    cache = createCache();
+    workList = Ints.asList(new int[listSize]);
+    for (int i = 0; i < cacheSize; i++) {
+      // HardReferenceInMemoryCache rejects index 0, although it fills from the front regardless.
+      cache.update(Math.max(i, 1), workList);
+    }
+  }
+
+  @Benchmark
+  public void update(final Indices indices) {
+    cache.update(indices.next(cacheSize), workList);
+  }
+
+  @Benchmark
+  public List<Integer> get(final Indices indices) {
+    return cache.get(indices.next(cacheSize));
+  }
+
+  private Cache<List<Integer>> createCache() throws IOException {
+    switch (cacheType) {
+      case LOCK_FREE:
+        return new LockFreeInMemoryCache<List<Integer>>(cacheSize);
+      case OFF_HEAP:
+        return new OffHeapIntListCache(cacheSize);
+      case MAPPED_FILE:
+        return new MappedFileIntListCache(cacheSize, listSize,
+            new File(System.getProperty("java.io.tmpdir")));
+      case MAP_MAKER:
+        return new ConfigurableMapMakerCache<List<Integer>>(
+            CacheBuilderSpec.parse("maximumSize=" + cacheSize), cacheSize);
+      case TINY_LFU:
+        return new TinyLfuCache<List<Integer>>(cacheSize, cacheSize / 2);
+      case HARD_REFERENCE:
+      default:
+        return new HardReferenceInMemoryCache<List<Integer>>(cacheSize);
+    }
+  }
+
+  /** A per-thread xorshift generator of cache indices, so that drawing one is not contended */
+  @State(Scope.Thread)
+  public static class Indices {
+    private int state = (int) System.nanoTime() | 1;
+
+    /** Returns an index from 1 to size - 1, which every implementation accepts */
+    int next(final int size) {
+      state ^= state << 13;
+      state ^= state >>> 17;
+      state ^= state << 5;
+      return 1 + (state & Integer.MAX_VALUE) % (size - 1);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.uncommons.maths.random.MersenneTwisterRNG;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link RandomNumber#generate(int, int, Random)} as work engines call it, both against
+ * a single generator shared between all threads and against a generator of each thread's own, and
+ * the bulk {@link RandomNumber#fill(int[], int, int, Random)} that work engines initialize their
+ * lists with.  {@link BenchmarkMain} runs it at increasing thread counts to expose the contention
+ * on the shared generator.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RandomNumberBenchmark {
+  @Benchmark
+  public int sharedGenerator(final SharedGenerator generator) {
+    return RandomNumber.generate(0, Integer.MAX_VALUE - 1, generator.rng);
+  }
+
+  @Benchmark
+  public int threadGenerator(final ThreadGenerator generator) {
+    return RandomNumber.generate(0, Integer.MAX_VALUE - 1, generator.rng);
+  }
+
+  @Benchmark
+  public int sharedGeneratorPercentage(final SharedGenerator generator) {
+    return RandomNumber.generatePercentage(generator.rng);
+  }
+
+  @Benchmark
+  public int splitMixGenerator(final ThreadGenerator generator) {
+    return RandomNumber.generate(0, Integer.MAX_VALUE - 1, generator.splitMix);
+  }
+
+  @Benchmark
+  public int[] fillThreadGenerator(final ThreadGenerator generator) {
+    RandomNumber.fill(generator.values, 0, Integer.MAX_VALUE - 1, generator.rng);
+    return generator.values;
+  }
+
+  @Benchmark
+  public int[] fillSplitMixGenerator(final ThreadGenerator generator) {
+    RandomNumber.fill(generator.values, 0, Integer.MAX_VALUE - 1, generator.splitMix);
+    return generator.values;
+  }
+
+  /** The generator shared by all benchmark threads */
+  @State(Scope.Benchmark)
+  public static class SharedGenerator {
+    final Random rng = new MersenneTwisterRNG();
+  }
+
+  /** Generators for each benchmark thread, and a work list of 1000 elements to fill */
+  @State(Scope.Thread)
+  public static class ThreadGenerator {
+    final Random rng = new MersenneTwisterRNG();
+    final SplitMixRandom splitMix = new SplitMixRandom(rng.nextLong());
+    final int[] values = new int[1000];
+  }
+}
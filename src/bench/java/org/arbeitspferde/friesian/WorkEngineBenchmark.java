@@ -0,0 +1,94 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import org.arbeitspferde.friesian.utility.SlotDistributionType;
+import org.arbeitspferde.friesian.utility.WorkEngineType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.uncommons.maths.random.MersenneTwisterRNG;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how many work items a single worker completes per second: filling the work list,
+ * partitioning it and sorting every partition.  Caching is disabled so that only the sort path is
+ * measured; see {@link CacheBenchmark} for the caches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WorkEngineBenchmark {
+  @Param({"LIST", "INT_ARRAY"})
+  private WorkEngineType workEngine;
+
+  @Param({"1000", "100000"})
+  private int listSize;
+
+  @Param({"1", "16", "256"})
+  private int numberOfPartitions;
+
+  private final Random rng = new MersenneTwisterRNG();
+  private final AtomicLong workTime = new AtomicLong();
+  private final AtomicLong sleepTime = new AtomicLong();
+  private final WorkLatencies workLatencies = new WorkLatencies();
+  private final SlotDistributions slotDistributions =
+      new SlotDistributions(SlotDistributionType.UNIFORM, 1.0, 0, 0);
+  private final Cache<List<Integer>> unusedCache = new LockFreeInMemoryCache<List<Integer>>(1);
+  private ForkJoinPool partitionSortPool;
+
+  @Setup
+  public void setUp() {
+    partitionSortPool = new ForkJoinPool();
+  }
+
+  @TearDown
+  public void tearDown() {
+    partitionSortPool.shutdown();
+  }
+
+  @Benchmark
+  public WorkEngine workItem() {
+    final WorkEngine engine = createEngine();
+    engine.run();
+    return engine;
+  }
+
+  private WorkEngine createEngine() {
+    switch (workEngine) {
+      case INT_ARRAY:
+        return new IntArrayWorkEngine(rng, 0, 0, unusedCache, unusedCache, listSize, listSize,
+            numberOfPartitions, numberOfPartitions, 0, 0, 1, partitionSortPool, workTime,
+            sleepTime, workLatencies, slotDistributions);
+      case LIST:
+      default:
+        return new ListWorkEngine(rng, 0, 0, unusedCache, unusedCache, listSize, listSize,
+            numberOfPartitions, numberOfPartitions, 0, 0, 1, partitionSortPool, workTime,
+            sleepTime, workLatencies, slotDistributions);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the bytes allocated on the heap by the threads of the JVM, using the per-thread
+ * allocation counters of HotSpot's {@link com.sun.management.ThreadMXBean}.
+ *
+ * The counter of a thread disappears with it, so the meter keeps the last value it read of each
+ * thread and carries it over once the thread is gone; whatever a thread allocates between the last
+ * reading and its end is not counted.
+ *
+ * Work engines read the counter of their own thread with {@link #getCurrentThreadAllocatedBytes()}
+ * to attribute allocation to the work item that caused it.
+ */
+@Singleton
+class AllocationMeter {
+  /** The bean that counts the bytes allocated by each thread, or null if none does */
+  private static final com.sun.management.ThreadMXBean THREAD_BEAN = findThreadBean();
+
+  private final Map<Long, Long> lastAllocatedBytes = new HashMap<Long, Long>();
+  private long endedThreadsAllocatedBytes = 0;
+
+  @Inject
+  AllocationMeter() {
+  }
+
+  /**
+   * Returns the bytes allocated by the current thread since it started, or -1 if they are not
+   * counted, as they are not for virtual threads.
+   */
+  static long getCurrentThreadAllocatedBytes() {
+    if (THREAD_BEAN == null) {
+      return -1;
+    }
+    return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /** Returns true if this JVM counts the bytes each thread allocates */
+  boolean isSupported() {
+    return THREAD_BEAN != null;
+  }
+
+  /** Returns the bytes allocated by all threads, or 0 if that is not supported */
+  synchronized long getAllocatedBytes() {
+    if (THREAD_BEAN == null) {
+      return 0;
+    }
+
+    final long[] threadIds = THREAD_BEAN.getAllThreadIds();
+    final long[] allocatedBytes = THREAD_BEAN.getThreadAllocatedBytes(threadIds);
+    final Map<Long, Long> liveAllocatedBytes = new HashMap<Long, Long>(threadIds.length * 2);
+    long total = 0;
+    for (int i = 0; i < threadIds.length; i++) {
+      if (allocatedBytes[i] >= 0) {
+        liveAllocatedBytes.put(threadIds[i], allocatedBytes[i]);
+        total += allocatedBytes[i];
+      }
+    }
+    for (final Map.Entry<Long, Long> thread : lastAllocatedBytes.entrySet()) {
+      if (!liveAllocatedBytes.containsKey(thread.getKey())) {
+        endedThreadsAllocatedBytes += thread.getValue();
+      }
+    }
+    lastAllocatedBytes.clear();
+    lastAllocatedBytes.putAll(liveAllocatedBytes);
+    return endedThreadsAllocatedBytes + total;
+  }
+
+  private static com.sun.management.ThreadMXBean findThreadBean() {
+    final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+      final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+      threadBean.setThreadAllocatedMemoryEnabled(true);
+      return threadBean;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,182 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.arbeitspferde.friesian.utility.ArrivalProcess;
+import org.arbeitspferde.friesian.utility.Settings;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces arrivals of work items in an open loop.
+ *
+ * Each arrival has an intended time on a timeline of {@link System#nanoTime()}, which is the
+ * previous intended time plus the interval that the arrival rate at that time asks for.  Because
+ * the timeline never depends on when arrivals are actually dispatched, a slow dispatch does not
+ * lower the offered load: arrivals that fall due in the meantime are dispatched back to back, in
+ * batches of up to the configured size, until the schedule is caught up.  How late each dispatch is
+ * against its intended time is recorded as the dispatch lag in {@link WorkLatencies}.
+ *
+ * Between arrivals the master parks until the next intended time, and spins for the last stretch
+ * that is too short to park for reliably, so rates well above a thousand per second can be paced.
+ *
+ * With the POISSON {@link ArrivalProcess} the interval to each next arrival is drawn from an
+ * exponential distribution around the one the rate asks for, from a generator of the scheduler's
+ * own that is seeded from the configured seed, if there is one.
+ */
+@Singleton
+class ArrivalScheduler {
+  /** Waits shorter than this are spun out instead of parked, as parking tends to overshoot them */
+  private static final long MINIMUM_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  /** How far the timeline moves on, without an arrival, while the arrival rate is not positive */
+  private static final long IDLE_STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private final int maxArrivalBatch;
+  private final boolean poisson;
+  private final SplitMixRandom rng;
+  private final WorkLatencies workLatencies;
+  private final AtomicLong lastParkNanos = new AtomicLong();
+  private volatile double lastArrivalsPerSecond;
+
+  /** The rate at which work items should arrive */
+  interface ArrivalRate {
+    /**
+     * Returns the number of arrivals per second that are wanted at the given time, which is
+     * measured in nanoseconds from the start of the schedule.
+     */
+    double getArrivalsPerSecond(long elapsedNanos);
+  }
+
+  /** A predetermined sequence of arrivals, such as that of a recorded trace */
+  interface ArrivalTimeline {
+    /**
+     * Move on to the next arrival and return when it is due, in nanoseconds from the start of the
+     * schedule, or return a negative number once there are no more arrivals.
+     */
+    long nextArrivalNanos() throws IOException;
+  }
+
+  /** The recipient of arrivals */
+  interface Arrival {
+    /**
+     * Dispatch a work item that was due at the given {@link System#nanoTime()}.
+     *
+     * @throws InterruptedException if dispatching was interrupted, which ends the schedule.
+     */
+    void arrive(long intendedNanos) throws InterruptedException;
+  }
+
+  @Inject
+  ArrivalScheduler(final Settings settings, final WorkLatencies workLatencies) {
+    this.maxArrivalBatch = Math.max(1, settings.getMaxArrivalBatch());
+    this.poisson = settings.getArrivalProcess() == ArrivalProcess.POISSON;
+    this.rng = new SplitMixRandom(
+        settings.getSeed() != null ? settings.getSeed() : new SecureRandom().nextLong()).split();
+    this.workLatencies = workLatencies;
+  }
+
+  /** Returns how long the master last parked between arrivals, in nanoseconds */
+  long getLastParkNanos() {
+    return lastParkNanos.get();
+  }
+
+  /** Returns the arrival rate that the master last paced arrivals at */
+  double getLastArrivalsPerSecond() {
+    return lastArrivalsPerSecond;
+  }
+
+  /**
+   * Dispatch arrivals at the given rate until interrupted.
+   *
+   * @throws InterruptedException once the master thread is interrupted.
+   */
+  void run(final ArrivalRate rate, final Arrival arrival) throws InterruptedException {
+    final long startNanos = System.nanoTime();
+    long intendedNanos = startNanos;
+
+    while (!Thread.currentThread().isInterrupted()) {
+      final long nowNanos = System.nanoTime();
+
+      for (int batch = 0; batch < maxArrivalBatch && intendedNanos - nowNanos <= 0; batch++) {
+        final double arrivalsPerSecond = rate.getArrivalsPerSecond(intendedNanos - startNanos);
+        lastArrivalsPerSecond = arrivalsPerSecond;
+        if (!(arrivalsPerSecond > 0.0)) {
+          intendedNanos += IDLE_STEP_NANOS;
+          continue;
+        }
+        workLatencies.getDispatchLag().record(System.nanoTime() - intendedNanos);
+        arrival.arrive(intendedNanos);
+        intendedNanos += Math.max(1L, intervalNanos(arrivalsPerSecond));
+      }
+
+      waitUntil(intendedNanos);
+    }
+    throw new InterruptedException("The arrival schedule was interrupted.");
+  }
+
+  /**
+   * Dispatch the arrivals of the timeline, either when they are due or, unless paced, as fast as
+   * they are accepted.  Returns once the timeline has no more arrivals.
+   *
+   * @throws InterruptedException once the master thread is interrupted.
+   * @throws IOException if the next arrival could not be read from the timeline.
+   */
+  void replay(final ArrivalTimeline timeline, final boolean paced, final Arrival arrival)
+      throws InterruptedException, IOException {
+    final long startNanos = System.nanoTime();
+    long offsetNanos;
+    while ((offsetNanos = timeline.nextArrivalNanos()) >= 0) {
+      final long intendedNanos = paced ? startNanos + offsetNanos : System.nanoTime();
+      waitUntil(intendedNanos);
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedException("The arrival schedule was interrupted.");
+      }
+      workLatencies.getDispatchLag().record(System.nanoTime() - intendedNanos);
+      arrival.arrive(intendedNanos);
+    }
+  }
+
+  /** Returns the interval to the next arrival at the given rate */
+  private long intervalNanos(final double arrivalsPerSecond) {
+    final double meanNanos = TimeUnit.SECONDS.toNanos(1) / arrivalsPerSecond;
+    if (!poisson) {
+      return (long) meanNanos;
+    }
+    return (long) (-meanNanos * Math.log(1.0 - rng.nextDouble()));
+  }
+
+  /** Park, and then spin, until the given {@link System#nanoTime()} has passed */
+  private void waitUntil(final long deadlineNanos) {
+    long remainingNanos = deadlineNanos - System.nanoTime();
+    lastParkNanos.set(Math.max(remainingNanos, 0L));
+    while (remainingNanos > 0 && !Thread.currentThread().isInterrupted()) {
+      if (remainingNanos > MINIMUM_PARK_NANOS) {
+        LockSupport.parkNanos(remainingNanos - MINIMUM_PARK_NANOS);
+      } else {
+        Thread.yield();
+      }
+      remainingNanos = deadlineNanos - System.nanoTime();
+    }
+  }
+}
@@ -15,18 +15,21 @@
 
 package org.arbeitspferde.friesian;
 
+import java.io.IOException;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.arbeitspferde.friesian.utility.Settings;
 import org.arbeitspferde.friesian.utility.SettingsProvider;
-import org.uncommons.maths.random.MersenneTwisterRNG;
 
 import com.google.common.base.Stopwatch;
 import com.google.inject.AbstractModule;
+import com.google.inject.Key;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
 import com.google.inject.assistedinject.FactoryModuleBuilder;
+import com.google.inject.name.Named;
 import com.google.inject.name.Names;
 
 /**
@@ -36,6 +39,9 @@ import com.google.inject.name.Names;
 public class BaseModule extends AbstractModule {
   final String[] args;
 
+  /** Started along with the module, which a main method makes before anything else */
+  private final Stopwatch startup = Stopwatch.createStarted();
+
   public BaseModule(final String[] args) {
     this.args = args;
   }
@@ -44,11 +50,21 @@ public class BaseModule extends AbstractModule {
   protected void configure() {
     install(new FactoryModuleBuilder()
     .implement(WorkEngine.class, ListWorkEngine.class)
-    .build(ListWorkEngineFactory.class));
+    .build(Key.get(ListWorkEngineFactory.class, Names.named("list"))));
+    install(new FactoryModuleBuilder()
+    .implement(WorkEngine.class, IntArrayWorkEngine.class)
+    .build(Key.get(ListWorkEngineFactory.class, Names.named("intArray"))));
+    install(new FactoryModuleBuilder()
+    .implement(WorkEngine.class, ObjectGraphWorkEngine.class)
+    .build(Key.get(ListWorkEngineFactory.class, Names.named("objectGraph"))));
+    install(new FactoryModuleBuilder()
+    .implement(WorkEngine.class, StreamingWorkEngine.class)
+    .build(Key.get(ListWorkEngineFactory.class, Names.named("streaming"))));
 
-    bind(Random.class).to(MersenneTwisterRNG.class);
+    bind(Random.class).toProvider(WorkItemRandomProvider.class);
     bind(Stopwatch.class).annotatedWith(Names.named("serverDuration")).to(Stopwatch.class)
     .in(Singleton.class);
+    bind(Stopwatch.class).annotatedWith(Names.named("startup")).toInstance(startup);
     bind(AtomicLong.class).annotatedWith(Names.named("jtaWorkerWorkTime")).to(AtomicLong.class)
     .in(Singleton.class);
     bind(AtomicLong.class).annotatedWith(Names.named("jtaWorkerSleepTime")).to(AtomicLong.class)
@@ -61,4 +77,41 @@ public class BaseModule extends AbstractModule {
   public String[] getArguments() {
     return args;
   }
+
+  /** The pool shared by all work items that sort their partitions in parallel */
+  @Provides
+  @Singleton
+  @Named("partitionSortPool")
+  ForkJoinPool getPartitionSortPool() {
+    return new ForkJoinPool();
+  }
+
+  /** The shape of the arrival rate, which a module of another main may bind instead */
+  @Provides
+  @Singleton
+  @Named("loadShape")
+  ArrivalScheduler.ArrivalRate getLoadShape(final Settings settings,
+      final LiveSettings liveSettings) throws IOException {
+    return LoadShapes.create(settings, liveSettings);
+  }
+
+  @Provides
+  @Singleton
+  ListWorkEngineFactory getListWorkEngineFactory(final Settings settings,
+      @Named("list") final ListWorkEngineFactory listWorkEngineFactory,
+      @Named("intArray") final ListWorkEngineFactory intArrayWorkEngineFactory,
+      @Named("objectGraph") final ListWorkEngineFactory objectGraphWorkEngineFactory,
+      @Named("streaming") final ListWorkEngineFactory streamingWorkEngineFactory) {
+    switch (settings.getWorkEngine()) {
+      case INT_ARRAY:
+        return intArrayWorkEngineFactory;
+      case OBJECT_GRAPH:
+        return objectGraphWorkEngineFactory;
+      case STREAMING:
+        return streamingWorkEngineFactory;
+      case LIST:
+      default:
+        return listWorkEngineFactory;
+    }
+  }
 }
@@ -0,0 +1,272 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.arbeitspferde.friesian.utility.CacheType;
+import org.arbeitspferde.friesian.utility.MetricExporter;
+import org.arbeitspferde.friesian.utility.MetricListener;
+import org.arbeitspferde.friesian.utility.Settings;
+
+/**
+ * Builds the caches that work engines store their finished work lists in, and registers the
+ * metrics of those that have any.  The metric exporter must be initialized before caches are
+ * created.
+ */
+@Singleton
+class CacheFactory {
+  private static final Logger log = Logger.getLogger(CacheFactory.class.getCanonicalName());
+
+  private final MetricExporter metricExporter;
+  private final Settings settings;
+
+  @Inject
+  CacheFactory(final MetricExporter metricExporter, final Settings settings) {
+    this.metricExporter = metricExporter;
+    this.settings = settings;
+  }
+
+  /**
+   * Create a cache.
+   *
+   * @param name The name of the cache, such as "hot" or "cold".
+   * @param type The kind of cache to create.
+   * @param cacheSize The number of elements the cache holds.
+   * @param specification The {@link CacheBuilderSpec} of a {@link CacheType#MAP_MAKER} cache, or
+   *     the empty string to bound it to the cache size.
+   * @throws IllegalArgumentException if the specification can not be parsed.
+   * @throws IllegalStateException if the backing store of the cache could not be set up.
+   */
+  public Cache<List<Integer>> create(final String name, final CacheType type,
+      final int cacheSize, final String specification) {
+    log.info(String.format("Creating %s cache of type %s with %d elements.", name, type,
+        cacheSize));
+
+    switch (type) {
+      case LOCK_FREE:
+        return new LockFreeInMemoryCache<List<Integer>>(cacheSize);
+      case OFF_HEAP:
+        return createOffHeapCache(name, cacheSize);
+      case MAPPED_FILE:
+        return createMappedFileCache(name, cacheSize);
+      case MAP_MAKER:
+        return createMapMakerCache(name, cacheSize, specification);
+      case TINY_LFU:
+        return createTinyLfuCache(name, cacheSize);
+      case HARD_REFERENCE:
+      default:
+        return new HardReferenceInMemoryCache<List<Integer>>(cacheSize);
+    }
+  }
+
+  private Cache<List<Integer>> createOffHeapCache(final String name, final int cacheSize) {
+    final OffHeapIntListCache cache = new OffHeapIntListCache(cacheSize);
+
+    metricExporter.register(String.format("jta_%s_cache_off_heap_reserved_bytes", name),
+        String.format("The bytes of direct memory reserved for slabs by the %s cache", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getReservedBytes();
+          }
+        });
+    metricExporter.register(String.format("jta_%s_cache_off_heap_allocated_bytes", name),
+        String.format("The bytes of slab chunks held by entries of the %s cache", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getAllocatedBytes();
+          }
+        });
+    metricExporter.register(String.format("jta_%s_cache_off_heap_stored_bytes", name),
+        String.format("The bytes of work list data held off-heap by the %s cache", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getStoredBytes();
+          }
+        });
+    metricExporter.register(String.format("jta_%s_cache_off_heap_slot_free_bytes", name),
+        String.format("The bytes of slab chunks that entries of the %s cache do not use", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getSlotFreeBytes();
+          }
+        });
+
+    return cache;
+  }
+
+  private Cache<List<Integer>> createMappedFileCache(final String name, final int cacheSize) {
+    final MappedFileIntListCache cache;
+    try {
+      cache = new MappedFileIntListCache(cacheSize, settings.getMaxListSize(),
+          settings.getMappedCacheDirectory());
+    } catch (final IOException e) {
+      throw new IllegalStateException(String.format("Unable to map the %s cache in %s.", name,
+          settings.getMappedCacheDirectory()), e);
+    }
+
+    metricExporter.register(String.format("jta_%s_cache_mapped_file_bytes", name),
+        String.format("The size of the file backing the %s cache", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getFileBytes();
+          }
+        });
+    metricExporter.register(String.format("jta_%s_cache_mapped_stored_bytes", name),
+        String.format("The bytes of work list data held in the file of the %s cache", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getStoredBytes();
+          }
+        });
+
+    return cache;
+  }
+
+  private Cache<List<Integer>> createMapMakerCache(final String name, final int cacheSize,
+      final String specification) {
+    final ConfigurableMapMakerCache<List<Integer>> cache =
+        new ConfigurableMapMakerCache<List<Integer>>(CacheBuilderSpec.parse(
+            specification.isEmpty() ? "maximumSize=" + cacheSize : specification), cacheSize);
+
+    metricExporter.register(String.format("jta_%s_cache_size", name),
+        String.format("The number of entries retained by the %s cache", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getRetainedSize();
+          }
+        });
+    metricExporter.register(String.format("jta_%s_cache_hit_rate", name),
+        String.format("The ratio of reads of the %s cache that found an entry", name),
+        new MetricListener<Double>() {
+          @Override
+          public Double value() {
+            return cache.getStats().hitRate();
+          }
+        });
+    metricExporter.register(String.format("jta_%s_cache_hit_count", name),
+        String.format("The number of reads of the %s cache that found an entry", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getStats().hitCount();
+          }
+        });
+    metricExporter.register(String.format("jta_%s_cache_miss_count", name),
+        String.format("The number of reads of the %s cache that found no entry", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getStats().missCount();
+          }
+        });
+    metricExporter.register(String.format("jta_%s_cache_eviction_count", name),
+        String.format("The number of entries evicted from the %s cache", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getStats().evictionCount();
+          }
+        });
+    metricExporter.register(String.format("jta_%s_cache_total_load_time_nanos", name),
+        String.format("The time the %s cache spent loading entries", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getStats().totalLoadTime();
+          }
+        });
+
+    return cache;
+  }
+
+  private Cache<List<Integer>> createTinyLfuCache(final String name, final int cacheSize) {
+    final TinyLfuCache<List<Integer>> cache = new TinyLfuCache<List<Integer>>(cacheSize,
+        Math.max(2, (int) ((long) cacheSize * settings.getTinyLfuCapacityPercentage() / 100)));
+
+    metricExporter.register(String.format("jta_%s_cache_size", name),
+        String.format("The number of entries retained by the %s cache", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getRetainedSize();
+          }
+        });
+    metricExporter.register(String.format("jta_%s_cache_hit_rate", name),
+        String.format("The ratio of reads of the %s cache that found an entry", name),
+        new MetricListener<Double>() {
+          @Override
+          public Double value() {
+            return cache.getHitRate();
+          }
+        });
+    metricExporter.register(String.format("jta_%s_cache_hit_count", name),
+        String.format("The number of reads of the %s cache that found an entry", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getHitCount();
+          }
+        });
+    metricExporter.register(String.format("jta_%s_cache_miss_count", name),
+        String.format("The number of reads of the %s cache that found no entry", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getMissCount();
+          }
+        });
+    metricExporter.register(String.format("jta_%s_cache_admission_count", name),
+        String.format("The number of candidates the %s cache admitted over a resident entry", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getAdmissionCount();
+          }
+        });
+    metricExporter.register(String.format("jta_%s_cache_rejection_count", name),
+        String.format("The number of candidates the %s cache rejected for a resident entry", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getRejectionCount();
+          }
+        });
+    metricExporter.register(String.format("jta_%s_cache_eviction_count", name),
+        String.format("The number of entries evicted from the %s cache", name),
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return cache.getEvictionCount();
+          }
+        });
+
+    return cache;
+  }
+}
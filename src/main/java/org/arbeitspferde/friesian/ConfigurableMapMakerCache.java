@@ -18,8 +18,8 @@ package org.arbeitspferde.friesian;
 import com.google.common.base.Preconditions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.cache.CacheStats;
 
-import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
@@ -27,27 +27,38 @@ import javax.annotation.Nullable;
 /**
  * Build an in-memory cache subject to {@link CacheBuilderSpec} definitions.
  *
+ * Indices range over a fixed number of keys, so that work engines pick them as they do for the
+ * other caches, while the specification decides how many entries are retained, how strongly they
+ * are referenced and when they expire.  Statistics are always recorded.
+ *
  * @param <T> The type of objects that this cache can hold.
  */
 public class ConfigurableMapMakerCache<T> implements Cache<T> {
   private static final Logger log =
       Logger.getLogger(ConfigurableMapMakerCache.class.getCanonicalName());
-  private final ConcurrentMap<Integer, T> backingMap;
-
-  public ConfigurableMapMakerCache(final CacheBuilderSpec specification)
+  private final com.google.common.cache.Cache<Integer, T> backingCache;
+  private final int cacheSize;
+
+  /**
+   * @param specification How to build the backing cache.
+   * @param cacheSize The number of keys that indices range over.
+   */
+  public ConfigurableMapMakerCache(final CacheBuilderSpec specification, final int cacheSize)
       throws IllegalArgumentException {
     Preconditions.checkNotNull(specification, "specification may not be null.");
     Preconditions.checkArgument(!specification.toParsableString().isEmpty(),
         "specification may not be empty.");
+    Preconditions.checkArgument(cacheSize > 0, "cacheSize must be positive.");
 
-    backingMap = CacheBuilder.from(specification).<Integer, T>build().asMap();
+    backingCache = CacheBuilder.from(specification).recordStats().<Integer, T>build();
+    this.cacheSize = cacheSize;
 
     log.info(String.format("Created map with %s specification.", specification));
   }
 
   @Override
   public int getCacheSize() {
-    return backingMap.size();
+    return cacheSize;
   }
 
   @Override
@@ -55,7 +66,7 @@ public class ConfigurableMapMakerCache<T> implements Cache<T> {
     Preconditions.checkArgument(index >= 0, "index must be zero or greater.");
     Preconditions.checkNotNull(data, "data may not be null.");
 
-    backingMap.put(index, data);
+    backingCache.put(index, data);
   }
 
   @Override
@@ -63,6 +74,16 @@ public class ConfigurableMapMakerCache<T> implements Cache<T> {
   public T get(final int index) {
     Preconditions.checkArgument(index >= 0, "index must be zero or greater.");
 
-    return backingMap.get(index);
+    return backingCache.getIfPresent(index);
+  }
+
+  /** Returns the number of entries currently retained */
+  public long getRetainedSize() {
+    return backingCache.size();
+  }
+
+  /** Returns the statistics of the backing cache */
+  public CacheStats getStats() {
+    return backingCache.stats();
   }
 }
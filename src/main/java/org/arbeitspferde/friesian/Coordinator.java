@@ -0,0 +1,257 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.arbeitspferde.friesian.utility.MetricExporter;
+import org.arbeitspferde.friesian.utility.MetricListener;
+import org.arbeitspferde.friesian.utility.Settings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Owns the arrival rate for worker processes, which may be on the same machine, that connect to it
+ * with a {@link CoordinatorClient}.
+ *
+ * Every {@link #INTERVAL_MILLIS} the coordinator evaluates the arrival rate on its own clock and
+ * sends each connected worker a share of it in proportion to the worker's processors.  Each worker
+ * answers with its counters, which the coordinator exports under the names the workers export them
+ * under, summed over all workers that are or were connected, so that the fleet can be watched as
+ * if it were a single workhorse.  A worker's counters count from its own startup, so the
+ * coordinator keeps only the latest counters of each worker by the id the worker chose at startup,
+ * and a worker that reconnects is not counted twice.
+ *
+ * The protocol is a stream of big-endian values: a worker opens with {@link #MAGIC}, a long id
+ * that is the same on every connection it makes, its number of processors and its number of
+ * counters; the coordinator then sends a double of arrivals per second each interval, to which the
+ * worker replies with a long for each counter.
+ */
+@Singleton
+class Coordinator {
+  private static final Logger log = Logger.getLogger(Coordinator.class.getCanonicalName());
+
+  /** The first bytes a worker sends, "FRCO" */
+  static final int MAGIC = 0x4652434f;
+
+  /** How often worker shares are sent out and worker counters come back */
+  static final long INTERVAL_MILLIS = 100;
+
+  /** The counters that workers report, in the order that they report them */
+  static final String[] COUNTER_NAMES = {
+      "jta_total_number_of_work_items",
+      "jta_worker_work_time",
+      "jta_worker_sleep_time"};
+
+  private static final String[] COUNTER_DESCRIPTIONS = {
+      "The total number of work items started by all workers since startup",
+      "Amount of wall clock time all workers spent in the work state since startup",
+      "The total amount of milliseconds that all workers have slept since startup"};
+
+  private final String host;
+  private final int port;
+  private final MetricExporter metricExporter;
+
+  private final List<Connection> connections = new CopyOnWriteArrayList<Connection>();
+  /** The latest counters of every worker that is or was connected, by worker id */
+  private final ConcurrentMap<Long, AtomicLongArray> workerCounters =
+      new ConcurrentHashMap<Long, AtomicLongArray>();
+  private volatile double arrivalsPerSecond;
+
+  @Inject
+  Coordinator(final Settings settings, final MetricExporter metricExporter) {
+    this.host = settings.getCoordinatorHost();
+    this.port = settings.getCoordinatorPort();
+    this.metricExporter = metricExporter;
+  }
+
+  /**
+   * Accept workers and share the arrival rate out among them until interrupted.  The metric
+   * exporter must already be initialized.
+   *
+   * @throws IOException if the coordinator could not listen on its address.
+   * @throws InterruptedException once the coordinator is interrupted.
+   */
+  void run(final ArrivalScheduler.ArrivalRate rate) throws IOException, InterruptedException {
+    final ServerSocket serverSocket = new ServerSocket(port, 0, InetAddress.getByName(host));
+    log.info(String.format("Coordinating workers on %s.", serverSocket.getLocalSocketAddress()));
+
+    registerMetrics();
+
+    final Thread acceptor = new Thread("coordinator-acceptor") {
+      @Override
+      public void run() {
+        while (!serverSocket.isClosed()) {
+          try {
+            final Connection connection = new Connection(serverSocket.accept());
+            connection.setDaemon(true);
+            connection.start();
+          } catch (final IOException e) {
+            if (!serverSocket.isClosed()) {
+              log.log(Level.WARNING, "Unable to accept a worker", e);
+            }
+          }
+        }
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+
+    final long startNanos = System.nanoTime();
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        arrivalsPerSecond = Math.max(0.0, rate.getArrivalsPerSecond(elapsedNanos));
+
+        // Share out among the same workers that the processors were summed over, even if another
+        // connects meanwhile.
+        final List<Connection> workers = ImmutableList.copyOf(connections);
+        int processors = 0;
+        for (final Connection connection : workers) {
+          processors += connection.processors;
+        }
+        if (processors > 0) {
+          for (final Connection connection : workers) {
+            connection.send(arrivalsPerSecond * connection.processors / processors);
+          }
+        }
+
+        TimeUnit.MILLISECONDS.sleep(INTERVAL_MILLIS);
+      }
+      throw new InterruptedException("The coordinator was interrupted.");
+    } finally {
+      serverSocket.close();
+      for (final Connection connection : connections) {
+        connection.retire();
+      }
+    }
+  }
+
+  private void registerMetrics() {
+    metricExporter.register("jta_coordinator_workers",
+        "The number of worker processes that are connected to the coordinator",
+        new MetricListener<Integer>() {
+          @Override
+          public Integer value() {
+            return connections.size();
+          }
+        });
+    metricExporter.register("jta_coordinator_arrival_rate",
+        "The number of work items per second that the coordinator shares out among its workers",
+        new MetricListener<Double>() {
+          @Override
+          public Double value() {
+            return arrivalsPerSecond;
+          }
+        });
+    for (int i = 0; i < COUNTER_NAMES.length; i++) {
+      final int counter = i;
+      metricExporter.register(COUNTER_NAMES[i], COUNTER_DESCRIPTIONS[i],
+          new MetricListener<Long>() {
+            @Override
+            public Long value() {
+              long sum = 0;
+              for (final AtomicLongArray counters : workerCounters.values()) {
+                sum += counters.get(counter);
+              }
+              return sum;
+            }
+          });
+    }
+  }
+
+  /** A worker process, whose counters are read by a thread of their own */
+  private final class Connection extends Thread {
+    private final Socket socket;
+    private DataOutputStream output;
+    private volatile int processors;
+
+    Connection(final Socket socket) {
+      super("coordinator-" + socket.getRemoteSocketAddress());
+      this.socket = socket;
+    }
+
+    @Override
+    public void run() {
+      try {
+        socket.setTcpNoDelay(true);
+        final DataInputStream input =
+            new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if (input.readInt() != MAGIC) {
+          throw new IOException("The peer is not a Friesian worker.");
+        }
+        final long id = input.readLong();
+        processors = Math.max(1, input.readInt());
+        if (input.readInt() != COUNTER_NAMES.length) {
+          throw new IOException("The worker reports a different set of counters.");
+        }
+        workerCounters.putIfAbsent(id, new AtomicLongArray(COUNTER_NAMES.length));
+        final AtomicLongArray counters = workerCounters.get(id);
+        connections.add(this);
+        log.info(String.format("Worker %s (%x) with %d processors connected.",
+            socket.getRemoteSocketAddress(), id, processors));
+
+        while (true) {
+          for (int i = 0; i < COUNTER_NAMES.length; i++) {
+            counters.set(i, input.readLong());
+          }
+        }
+      } catch (final IOException e) {
+        log.info(String.format("Worker %s disconnected: %s", socket.getRemoteSocketAddress(), e));
+      } finally {
+        retire();
+      }
+    }
+
+    /** Send the worker its share of the arrival rate, disconnecting it if that fails */
+    void send(final double share) {
+      try {
+        output.writeDouble(share);
+        output.flush();
+      } catch (final IOException e) {
+        retire();
+      }
+    }
+
+    /** Stop coordinating the worker, keeping its counters in the totals */
+    void retire() {
+      connections.remove(this);
+      try {
+        socket.close();
+      } catch (final IOException e) {
+        log.log(Level.WARNING, "Unable to close the connection to a worker", e);
+      }
+    }
+  }
+}
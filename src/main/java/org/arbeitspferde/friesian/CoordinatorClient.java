@@ -0,0 +1,139 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.arbeitspferde.friesian.utility.MetricExporter;
+import org.arbeitspferde.friesian.utility.MetricListener;
+import org.arbeitspferde.friesian.utility.Settings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * The arrival rate of a worker process, which is the share of the load that its
+ * {@link Coordinator} gives it.
+ *
+ * A daemon thread keeps a connection to the coordinator, takes each share it is sent and answers
+ * with the worker's counters.  While the coordinator cannot be reached no work items arrive, and
+ * the thread tries to connect again every second.  Every connection carries the same worker id,
+ * chosen at random once per JVM, by which the coordinator tells a reconnecting worker from a new
+ * one.
+ */
+@Singleton
+class CoordinatorClient implements ArrivalScheduler.ArrivalRate {
+  private static final Logger log = Logger.getLogger(CoordinatorClient.class.getCanonicalName());
+
+  private static final long RECONNECT_MILLIS = 1000;
+
+  private final String host;
+  private final int port;
+  private final MetricExporter metricExporter;
+  private final long id = new SecureRandom().nextLong();
+
+  private volatile double arrivalsPerSecond;
+
+  @Inject
+  CoordinatorClient(final Settings settings, final MetricExporter metricExporter) {
+    this.host = settings.getCoordinatorHost();
+    this.port = settings.getCoordinatorPort();
+    this.metricExporter = metricExporter;
+  }
+
+  /**
+   * Connect to the coordinator, and keep reporting it the given counters in the order of
+   * {@link Coordinator#COUNTER_NAMES}.  The metric exporter must already be initialized.
+   */
+  void start(final AtomicLong... counters) {
+    Preconditions.checkArgument(counters.length == Coordinator.COUNTER_NAMES.length,
+        "Workers report %s counters.", Coordinator.COUNTER_NAMES.length);
+
+    metricExporter.register("jta_coordinated_arrival_rate",
+        "The number of work items per second that the coordinator last asked of this worker",
+        new MetricListener<Double>() {
+          @Override
+          public Double value() {
+            return arrivalsPerSecond;
+          }
+        });
+
+    final Thread client = new Thread("coordinator-client") {
+      @Override
+      public void run() {
+        while (true) {
+          try {
+            follow(counters);
+          } catch (final IOException e) {
+            log.warning(
+                String.format("Unable to follow the coordinator at %s:%d: %s", host, port, e));
+          }
+          arrivalsPerSecond = 0.0;
+          try {
+            TimeUnit.MILLISECONDS.sleep(RECONNECT_MILLIS);
+          } catch (final InterruptedException e) {
+            return;
+          }
+        }
+      }
+    };
+    client.setDaemon(true);
+    client.start();
+  }
+
+  @Override
+  public double getArrivalsPerSecond(final long elapsedNanos) {
+    return arrivalsPerSecond;
+  }
+
+  /** Take the shares that the coordinator sends until the connection to it fails */
+  private void follow(final AtomicLong[] counters) throws IOException {
+    final Socket socket = new Socket(host, port);
+    try {
+      socket.setTcpNoDelay(true);
+      final DataInputStream input =
+          new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      final DataOutputStream output =
+          new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      output.writeInt(Coordinator.MAGIC);
+      output.writeLong(id);
+      output.writeInt(Runtime.getRuntime().availableProcessors());
+      output.writeInt(counters.length);
+      output.flush();
+      log.info(String.format("Following the coordinator at %s:%d.", host, port));
+
+      while (true) {
+        arrivalsPerSecond = input.readDouble();
+        for (final AtomicLong counter : counters) {
+          output.writeLong(counter.get());
+        }
+        output.flush();
+      }
+    } finally {
+      socket.close();
+    }
+  }
+}
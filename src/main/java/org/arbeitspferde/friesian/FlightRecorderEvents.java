@@ -0,0 +1,271 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Custom JDK Flight Recorder events that tie allocation and GC events in a recording back to the
+ * work items, partition sorts, worker sleeps and cache operations that caused them.
+ *
+ * Each event is begun by a begin method, which returns an opaque token, and committed by the
+ * matching end method, which is handed the token and the event's fields.  While an event is not
+ * enabled in a recording, its begin method returns null without allocating, and its end method
+ * does nothing with a null token, so the instrumentation can stay in place during performance
+ * runs.  On JVMs without the jdk.jfr module no event class is ever loaded, as the callers only
+ * refer to the tokens as {@link Object}.
+ */
+final class FlightRecorderEvents {
+  private static final String CATEGORY = "Friesian";
+
+  /** Whether this JVM has JDK Flight Recorder */
+  private static final boolean AVAILABLE = isAvailable();
+
+  /* Instances only used to ask whether an event is enabled, which is the same for every instance */
+  private static final WorkItem WORK_ITEM = AVAILABLE ? new WorkItem() : null;
+  private static final PartitionSort PARTITION_SORT = AVAILABLE ? new PartitionSort() : null;
+  private static final WorkerSleep WORKER_SLEEP = AVAILABLE ? new WorkerSleep() : null;
+  private static final CacheGet CACHE_GET = AVAILABLE ? new CacheGet() : null;
+  private static final CacheUpdate CACHE_UPDATE = AVAILABLE ? new CacheUpdate() : null;
+
+  private FlightRecorderEvents() {
+  }
+
+  /** Begin a work item event, or return null if it is not enabled */
+  static Object beginWorkItem() {
+    if (!AVAILABLE || !WORK_ITEM.isEnabled()) {
+      return null;
+    }
+    final WorkItem event = new WorkItem();
+    event.begin();
+    return event;
+  }
+
+  /** End and commit a work item event begun by {@link #beginWorkItem()} */
+  static void endWorkItem(final Object token, final int listSize, final int partitionCount,
+      final long queueingNanos, final long allocatedBytes) {
+    if (token == null) {
+      return;
+    }
+    final WorkItem event = (WorkItem) token;
+    event.end();
+    if (event.shouldCommit()) {
+      event.listSize = listSize;
+      event.partitionCount = partitionCount;
+      event.queueing = queueingNanos;
+      event.allocated = allocatedBytes;
+      event.commit();
+    }
+  }
+
+  /** Begin a partition sort event, or return null if it is not enabled */
+  static Object beginPartitionSort() {
+    if (!AVAILABLE || !PARTITION_SORT.isEnabled()) {
+      return null;
+    }
+    final PartitionSort event = new PartitionSort();
+    event.begin();
+    return event;
+  }
+
+  /** End and commit a partition sort event begun by {@link #beginPartitionSort()} */
+  static void endPartitionSort(final Object token, final int partitionMin,
+      final int partitionMax) {
+    if (token == null) {
+      return;
+    }
+    final PartitionSort event = (PartitionSort) token;
+    event.end();
+    if (event.shouldCommit()) {
+      event.partitionMin = partitionMin;
+      event.partitionMax = partitionMax;
+      event.commit();
+    }
+  }
+
+  /** Begin a worker sleep event, or return null if it is not enabled */
+  static Object beginWorkerSleep() {
+    if (!AVAILABLE || !WORKER_SLEEP.isEnabled()) {
+      return null;
+    }
+    final WorkerSleep event = new WorkerSleep();
+    event.begin();
+    return event;
+  }
+
+  /** End and commit a worker sleep event begun by {@link #beginWorkerSleep()} */
+  static void endWorkerSleep(final Object token, final int sleepMillis) {
+    if (token == null) {
+      return;
+    }
+    final WorkerSleep event = (WorkerSleep) token;
+    event.end();
+    if (event.shouldCommit()) {
+      event.requestedMillis = sleepMillis;
+      event.commit();
+    }
+  }
+
+  /** Begin a cache get event, or return null if it is not enabled */
+  static Object beginCacheGet() {
+    if (!AVAILABLE || !CACHE_GET.isEnabled()) {
+      return null;
+    }
+    final CacheGet event = new CacheGet();
+    event.begin();
+    return event;
+  }
+
+  /** End and commit a cache get event begun by {@link #beginCacheGet()} */
+  static void endCacheGet(final Object token, final String cache, final int slot,
+      final boolean hit) {
+    if (token == null) {
+      return;
+    }
+    final CacheGet event = (CacheGet) token;
+    event.end();
+    if (event.shouldCommit()) {
+      event.cache = cache;
+      event.slot = slot;
+      event.hit = hit;
+      event.commit();
+    }
+  }
+
+  /** Begin a cache update event, or return null if it is not enabled */
+  static Object beginCacheUpdate() {
+    if (!AVAILABLE || !CACHE_UPDATE.isEnabled()) {
+      return null;
+    }
+    final CacheUpdate event = new CacheUpdate();
+    event.begin();
+    return event;
+  }
+
+  /** End and commit a cache update event begun by {@link #beginCacheUpdate()} */
+  static void endCacheUpdate(final Object token, final String cache, final int slot,
+      final int size) {
+    if (token == null) {
+      return;
+    }
+    final CacheUpdate event = (CacheUpdate) token;
+    event.end();
+    if (event.shouldCommit()) {
+      event.cache = cache;
+      event.slot = slot;
+      event.size = size;
+      event.commit();
+    }
+  }
+
+  private static boolean isAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    } catch (final ClassNotFoundException e) {
+      return false;
+    } catch (final LinkageError e) {
+      return false;
+    }
+  }
+
+  @Name("org.arbeitspferde.friesian.WorkItem")
+  @Label("Work Item")
+  @Category(CATEGORY)
+  @Description("A work item, from when a worker starts it until it is cached")
+  @StackTrace(false)
+  static final class WorkItem extends Event {
+    @Label("List Size")
+    int listSize;
+
+    @Label("Partition Count")
+    int partitionCount;
+
+    @Label("Queueing")
+    @Description("How long the work item waited after its intended arrival before it started")
+    @Timespan(Timespan.NANOSECONDS)
+    long queueing;
+
+    @Label("Allocated")
+    @Description("The bytes the work item allocated on its worker's thread, or -1 if not counted")
+    @DataAmount
+    long allocated;
+  }
+
+  @Name("org.arbeitspferde.friesian.PartitionSort")
+  @Label("Partition Sort")
+  @Category(CATEGORY)
+  @Description("The sort of one partition of a work list")
+  @StackTrace(false)
+  static final class PartitionSort extends Event {
+    @Label("Partition Min")
+    int partitionMin;
+
+    @Label("Partition Max")
+    int partitionMax;
+  }
+
+  @Name("org.arbeitspferde.friesian.WorkerSleep")
+  @Label("Worker Sleep")
+  @Category(CATEGORY)
+  @Description("A worker sleeping between partition sorts, as if blocked on I/O")
+  @StackTrace(false)
+  static final class WorkerSleep extends Event {
+    @Label("Requested")
+    @Timespan(Timespan.MILLISECONDS)
+    long requestedMillis;
+  }
+
+  @Name("org.arbeitspferde.friesian.CacheGet")
+  @Label("Cache Get")
+  @Category(CATEGORY)
+  @Description("A read of one slot of the hot or cold cache")
+  @StackTrace(false)
+  static final class CacheGet extends Event {
+    @Label("Cache")
+    String cache;
+
+    @Label("Slot")
+    int slot;
+
+    @Label("Hit")
+    boolean hit;
+  }
+
+  @Name("org.arbeitspferde.friesian.CacheUpdate")
+  @Label("Cache Update")
+  @Category(CATEGORY)
+  @Description("A write of a work list to one slot of the hot or cold cache")
+  @StackTrace(false)
+  static final class CacheUpdate extends Event {
+    @Label("Cache")
+    String cache;
+
+    @Label("Slot")
+    int slot;
+
+    @Label("Size")
+    @Description("The number of elements written")
+    int size;
+  }
+}
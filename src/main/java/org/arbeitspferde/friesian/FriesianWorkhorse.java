@@ -15,23 +15,27 @@
 
 package org.arbeitspferde.friesian;
 
-
+import java.io.IOException;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+
+import org.arbeitspferde.friesian.utility.CoordinationRole;
 import org.arbeitspferde.friesian.utility.Metric;
 import org.arbeitspferde.friesian.utility.MetricExporter;
+import org.arbeitspferde.friesian.utility.MetricListener;
 import org.arbeitspferde.friesian.utility.Settings;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
 
 /**
@@ -49,92 +53,254 @@ public class FriesianWorkhorse {
   private static final Logger log = Logger.getLogger(FriesianWorkhorse.class.getCanonicalName());
 
   private final AtomicLong jtaTotalNumberOfWorkItems = new AtomicLong();
-  private final AtomicLong jtaMasterSleepTime = new AtomicLong();
-  private final AtomicLong jtaWorkerWorkTime = new AtomicLong();
-  private final AtomicLong jtaWorkerSleepTime = new AtomicLong();
+  private final AtomicLong jtaStartupTime = new AtomicLong();
+  private final AtomicLong jtaWorkerWorkTime;
+  private final AtomicLong jtaWorkerSleepTime;
 
-  private final Stopwatch timer;
   private final MetricExporter metricExporter;
   private final ListWorkEngineFactory listWorkEngineFactory;
+  private final WorkerScheduler workerScheduler;
+  private final ArrivalScheduler arrivalScheduler;
+  private final CacheFactory cacheFactory;
+  private final WorkItemRandomProvider workItemRandomProvider;
+  private final Coordinator coordinator;
+  private final CoordinatorClient coordinatorClient;
+  private final LoadController loadController;
+  private final MemoryTelemetry memoryTelemetry;
+  private final LiveSettings liveSettings;
+  private final ArrivalScheduler.ArrivalRate loadShape;
+  private final WorkLatencies workLatencies;
   private final Settings settings;
   private final Build build;
+  private final Stopwatch startup;
 
   @Inject
-  public FriesianWorkhorse(final Stopwatch timer, final MetricExporter metricExporter,
-      final ListWorkEngineFactory listWorkEngineFactory, final Settings settings,
-      final Build build) {
-    this.timer = timer;
+  public FriesianWorkhorse(final MetricExporter metricExporter,
+      final ListWorkEngineFactory listWorkEngineFactory, final WorkerScheduler workerScheduler,
+      final ArrivalScheduler arrivalScheduler, final CacheFactory cacheFactory,
+      final WorkItemRandomProvider workItemRandomProvider, final Coordinator coordinator,
+      final CoordinatorClient coordinatorClient, final LoadController loadController,
+      final MemoryTelemetry memoryTelemetry, final LiveSettings liveSettings,
+      @Named("loadShape") final ArrivalScheduler.ArrivalRate loadShape,
+      final WorkLatencies workLatencies,
+      @Named("jtaWorkerWorkTime") final AtomicLong jtaWorkerWorkTime,
+      @Named("jtaWorkerSleepTime") final AtomicLong jtaWorkerSleepTime,
+      final Settings settings, final Build build, @Named("startup") final Stopwatch startup) {
     this.metricExporter = metricExporter;
     this.listWorkEngineFactory = listWorkEngineFactory;
+    this.workerScheduler = workerScheduler;
+    this.arrivalScheduler = arrivalScheduler;
+    this.cacheFactory = cacheFactory;
+    this.workItemRandomProvider = workItemRandomProvider;
+    this.coordinator = coordinator;
+    this.coordinatorClient = coordinatorClient;
+    this.loadController = loadController;
+    this.memoryTelemetry = memoryTelemetry;
+    this.liveSettings = liveSettings;
+    this.loadShape = loadShape;
+    this.workLatencies = workLatencies;
+    this.jtaWorkerWorkTime = jtaWorkerWorkTime;
+    this.jtaWorkerSleepTime = jtaWorkerSleepTime;
     this.settings = settings;
     this.build = build;
+    this.startup = startup;
   }
 
   public void run() {
     log.info(build.getStamp());
 
-    timer.start();
-
-    final ExecutorService workService = Executors.newCachedThreadPool();
+    metricExporter.init();
+    try {
+      liveSettings.start();
+    } catch (final IOException e) {
+      throw new IllegalStateException("Unable to serve the live settings", e);
+    }
 
-    final Cache<List<Integer>> hotCache = new HardReferenceInMemoryCache<List<Integer>>(
-        settings.getHotCacheSize());
-    final Cache<List<Integer>> coldCache = new HardReferenceInMemoryCache<List<Integer>>(
-        settings.getColdCacheSize());
+    if (settings.getCoordination() == CoordinationRole.COORDINATOR) {
+      coordinate();
+      return;
+    }
 
-    metricExporter.init();
+    final Cache<List<Integer>> hotCache = cacheFactory.create("hot", settings.getHotCacheType(),
+        settings.getHotCacheSize(), settings.getHotCacheSpec());
+    final Cache<List<Integer>> coldCache = cacheFactory.create("cold",
+        settings.getColdCacheType(), settings.getColdCacheSize(), settings.getColdCacheSpec());
 
     metricExporter.register("jta_total_number_of_work_items",
         "The total number of work items started by workers since startup",
         Metric.make(jtaTotalNumberOfWorkItems));
+    metricExporter.register("jta_startup_time",
+        "Amount of time in milliseconds from startup until the first work item was dispatched",
+        Metric.make(jtaStartupTime));
     metricExporter.register("jta_master_sleep_time",
-        "Amount of time the master slept after scheduling the current worker",
-        Metric.make(jtaMasterSleepTime));
+        "Amount of time in milliseconds the master last slept between arrivals",
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return TimeUnit.NANOSECONDS.toMillis(arrivalScheduler.getLastParkNanos());
+          }
+        });
+    metricExporter.register("jta_target_arrival_rate",
+        "The number of work items per second that the master last paced arrivals at",
+        new MetricListener<Double>() {
+          @Override
+          public Double value() {
+            return arrivalScheduler.getLastArrivalsPerSecond();
+          }
+        });
     metricExporter.register("jta_worker_work_time",
         "Amount of wall clock time worker's spent in the work state since JTA startup",
         Metric.make(jtaWorkerWorkTime));
     metricExporter.register("jta_worker_sleep_time",
         "The total amount of milliseconds that the workers have slept since JTA startup",
         Metric.make(jtaWorkerSleepTime));
+    workLatencies.register(metricExporter);
+    memoryTelemetry.start();
+
+    workerScheduler.start();
+
+    final ArrivalScheduler.ArrivalRate rate;
+    if (settings.getCoordination() == CoordinationRole.WORKER) {
+      coordinatorClient.start(jtaTotalNumberOfWorkItems, jtaWorkerWorkTime, jtaWorkerSleepTime);
+      rate = loadController.control(coordinatorClient);
+    } else {
+      rate = loadController.control(loadShape);
+    }
+    loadController.start();
 
     try {
-      while (true) {
-        try {
-          final WorkEngine worker = listWorkEngineFactory.create(settings.getSleepProbability(),
-              settings.getWorkerSleepTime(), hotCache, coldCache, settings.getMinListSize(),
-              settings.getMaxListSize(), settings.getMinNumberOfListPartitions(),
-              settings.getMaxNumberOfListPartitions(), settings.getHotProbability(),
-              settings.getColdProbability());
-          workService.execute(worker);
-          jtaTotalNumberOfWorkItems.incrementAndGet();
-        } catch (final RejectedExecutionException e) {
-          log.log(Level.WARNING, "Unable to execute thread", e);
-        }
-        jtaMasterSleepTime.set(howManyMillisToSleep());
-        Thread.sleep(jtaMasterSleepTime.get());
+      switch (settings.getTraceMode()) {
+        case REPLAY:
+          replay(hotCache, coldCache, true);
+          break;
+        case REPLAY_FAST:
+          replay(hotCache, coldCache, false);
+          break;
+        case RECORD:
+          generate(rate, hotCache, coldCache, record());
+          break;
+        case NONE:
+        default:
+          generate(rate, hotCache, coldCache, null);
+          break;
       }
     } catch (final InterruptedException e) {
       log.log(Level.WARNING, "Master is unable to sleep", e);
+    } catch (final IOException e) {
+      throw new IllegalStateException("Unable to use the workload trace " + settings.getTraceFile(),
+          e);
+    }
+  }
+
+  /** Share the arrival rate of the load shape out among worker processes until interrupted */
+  private void coordinate() {
+    try {
+      coordinator.run(loadShape);
+    } catch (final InterruptedException e) {
+      log.log(Level.WARNING, "Coordinator is unable to sleep", e);
+    } catch (final IOException e) {
+      throw new IllegalStateException("Unable to coordinate workers", e);
     }
   }
 
+  /** Generate work items live at the given rate, recording them to the trace unless it is null */
+  private void generate(final ArrivalScheduler.ArrivalRate rate,
+      final Cache<List<Integer>> hotCache, final Cache<List<Integer>> coldCache,
+      @Nullable final WorkloadTrace.Writer trace) throws InterruptedException {
+    arrivalScheduler.run(rate, new ArrivalScheduler.Arrival() {
+      @Override
+      public void arrive(final long intendedNanos) throws InterruptedException {
+        final WorkItemParameters parameters =
+            loadController.control(liveSettings.get().getParameters());
+        if (trace != null) {
+          try {
+            trace.write(intendedNanos, workItemRandomProvider.getNextSeed(), parameters);
+          } catch (final IOException e) {
+            throw new IllegalStateException("Unable to record the workload trace", e);
+          }
+        }
+        dispatch(parameters, hotCache, coldCache, intendedNanos);
+      }
+    });
+  }
+
   /**
-   * Returns the varying number of milliseconds to sleep based on the diurnal
-   * curve function
+   * Open the trace that work items are recorded to.  It is written out when the JVM shuts down,
+   * which is how a recording run ends.
    */
-  private long howManyMillisToSleep() {
-    return (long) (1000.0 / ((settings.getRateSlopeConstant() * diurnalCurve(this.timer)) + settings
-        .getRateInterceptConstant()));
+  private WorkloadTrace.Writer record() throws IOException {
+    final WorkloadTrace.Writer trace = new WorkloadTrace.Writer(settings.getTraceFile(),
+        settings.getWorkEngine(), workItemRandomProvider.getType());
+    Runtime.getRuntime().addShutdownHook(new Thread("trace-writer") {
+      @Override
+      public void run() {
+        try {
+          trace.close();
+          log.info(String.format("Recorded %d work items to %s.", trace.getCount(),
+              settings.getTraceFile()));
+        } catch (final IOException e) {
+          log.log(Level.SEVERE, "Unable to write out the workload trace", e);
+        }
+      }
+    });
+    log.info("Recording work items to " + settings.getTraceFile());
+    return trace;
   }
 
   /**
-   * Simluates a diurnal curve. Returns a number of milliseconds. d =
-   * -cos(msec_since_epoch) + 1.5
+   * Replay the work items of the trace, at their recorded pace or as fast as the workers accept
+   * them, and wait for the last of them to finish.
    */
-  private double diurnalCurve(final Stopwatch timer) {
-    return (
-        -1.0 * Math.cos(
-            (timer.elapsed(TimeUnit.MILLISECONDS) / (settings.getDiurnalPeriod()
-            * 60.0 * 60.0 * 1000.0)) * Math.PI * 2.0)) + 1.5;
+  private void replay(final Cache<List<Integer>> hotCache, final Cache<List<Integer>> coldCache,
+      final boolean paced) throws InterruptedException, IOException {
+    final WorkloadTrace.Reader trace = new WorkloadTrace.Reader(settings.getTraceFile());
+    try {
+      Preconditions.checkArgument(trace.getWorkEngine() == settings.getWorkEngine(),
+          "%s was recorded with the %s work engine; replay it with --workEngine=%s.",
+          settings.getTraceFile(), trace.getWorkEngine(), trace.getWorkEngine());
+      Preconditions.checkArgument(
+          trace.getRandomNumberGenerator() == workItemRandomProvider.getType(),
+          "%s was recorded with %s generators; replay it with --randomNumberGenerator=%s.",
+          settings.getTraceFile(), trace.getRandomNumberGenerator(),
+          trace.getRandomNumberGenerator());
+
+      log.info(String.format("Replaying work items from %s %s.", settings.getTraceFile(),
+          paced ? "at their recorded pace" : "as fast as possible"));
+      final long startNanos = System.nanoTime();
+      arrivalScheduler.replay(new ArrivalScheduler.ArrivalTimeline() {
+        @Override
+        public long nextArrivalNanos() throws IOException {
+          return trace.next() ? trace.getOffsetNanos() : -1L;
+        }
+      }, paced, new ArrivalScheduler.Arrival() {
+        @Override
+        public void arrive(final long intendedNanos) throws InterruptedException {
+          workItemRandomProvider.setNextSeed(trace.getSeed());
+          dispatch(trace.getParameters(), hotCache, coldCache, intendedNanos);
+        }
+      });
+      workerScheduler.shutdown();
+      log.info(String.format("Replayed %d work items in %d ms.", jtaTotalNumberOfWorkItems.get(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+    } finally {
+      trace.close();
+    }
+  }
+
+  /** Create a work item that was due at the given {@link System#nanoTime()} and schedule it */
+  private void dispatch(final WorkItemParameters parameters, final Cache<List<Integer>> hotCache,
+      final Cache<List<Integer>> coldCache, final long intendedNanos)
+      throws InterruptedException {
+    try {
+      final WorkEngine worker = parameters.create(listWorkEngineFactory, hotCache, coldCache);
+      worker.markSubmitted(intendedNanos);
+      if (workerScheduler.execute(worker) && jtaTotalNumberOfWorkItems.incrementAndGet() == 1) {
+        jtaStartupTime.set(startup.elapsed(TimeUnit.MILLISECONDS));
+        log.info(String.format("Dispatched the first work item %d ms after startup.",
+            jtaStartupTime.get()));
+      }
+    } catch (final RejectedExecutionException e) {
+      log.log(Level.WARNING, "Unable to execute thread", e);
+    }
   }
 }
@@ -0,0 +1,84 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.primitives.Ints;
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+import com.google.inject.name.Named;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A work engine that works on a primitive array of integers, by partitioning and sorting each
+ * partition in place.
+ *
+ * It performs the same work as {@link ListWorkEngine} without boxing each element, so that the
+ * cost of sorting is not dominated by allocation.  The caches receive a {@link List} view that is
+ * backed by the array itself.
+ */
+class IntArrayWorkEngine extends PartitionedListWorkEngine {
+  private final Random rng;
+  private final int[] workList;
+
+  @Inject
+  IntArrayWorkEngine(Random rng, @Assisted("sleepProbability") int sleepProbability,
+      @Assisted("workerSleepTime") int workerSleepTime,
+      @Assisted("hotCache") Cache<List<Integer>> hotCache,
+      @Assisted("coldCache") Cache<List<Integer>> coldCache,
+      @Assisted("minListSize") int minListSize,
+      @Assisted("maxListSize") int maxListSize,
+      @Assisted("minNumberOfListPartitions") int minNumberOfListPartitions,
+      @Assisted("maxNumberOfListPartitions") int maxNumberOfListPartitions,
+      @Assisted("hotProbability") int hotProbability,
+      @Assisted("coldProbability") int coldProbability,
+      @Assisted("maxPartitionParallelism") int maxPartitionParallelism,
+      @Named("partitionSortPool") ForkJoinPool partitionSortPool,
+      @Named("jtaWorkerWorkTime") AtomicLong jtaWorkerWorkTime,
+      @Named("jtaWorkerSleepTime") AtomicLong jtaWorkerSleepTime,
+      WorkLatencies workLatencies, SlotDistributions slotDistributions) {
+
+    super(rng, sleepProbability, workerSleepTime, hotCache, coldCache, minListSize, maxListSize,
+        minNumberOfListPartitions, maxNumberOfListPartitions, hotProbability, coldProbability,
+        maxPartitionParallelism, partitionSortPool, jtaWorkerWorkTime, jtaWorkerSleepTime,
+        workLatencies, slotDistributions);
+
+    this.rng = rng;
+    this.workList = new int[getListSize()];
+  }
+
+  @Override
+  /** Initialize the work performed by the work engine */
+  public void init() {
+    RandomNumber.fill(this.workList, 0, Integer.MAX_VALUE - 1, this.rng);
+  }
+
+  @Override
+  /** Wrap the array without copying or boxing it */
+  List<Integer> getCacheableWorkList() {
+    return Ints.asList(workList);
+  }
+
+  @Override
+  /** Sort the partition of the work array into ascending order in place */
+  void sortPartition(int partitionMin, int partitionMax) {
+    Arrays.sort(this.workList, partitionMin, partitionMax + 1);
+  }
+}
@@ -22,9 +22,12 @@ import java.util.List;
 /**
  * A means of provisioning objects via Guice that have dependencies that Guice does not fulfill
  * itself.
+ *
+ * The kind of {@link WorkEngine} that is created is chosen by {@link BaseModule} from the
+ * settings.
  */
 interface ListWorkEngineFactory {
-  ListWorkEngine create(@Assisted("sleepProbability") int sleepProbability,
+  WorkEngine create(@Assisted("sleepProbability") int sleepProbability,
       @Assisted("workerSleepTime") int workerSleepTime,
       @Assisted("hotCache") Cache<List<Integer>> hotCache,
       @Assisted("coldCache") Cache<List<Integer>> coldCache,
@@ -33,5 +36,6 @@ interface ListWorkEngineFactory {
       @Assisted("minNumberOfListPartitions") int minNumberOfListPartitions,
       @Assisted("maxNumberOfListPartitions") int maxNumberOfListPartitions,
       @Assisted("hotProbability") int hotProbability,
-      @Assisted("coldProbability") int coldProbability);
+      @Assisted("coldProbability") int coldProbability,
+      @Assisted("maxPartitionParallelism") int maxPartitionParallelism);
 }
@@ -0,0 +1,420 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.arbeitspferde.friesian.utility.CacheType;
+import org.arbeitspferde.friesian.utility.Metric;
+import org.arbeitspferde.friesian.utility.MetricExporter;
+import org.arbeitspferde.friesian.utility.MetricListener;
+import org.arbeitspferde.friesian.utility.Settings;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * The settings that shape the load, which may be changed while the test runs so that the load can
+ * be stepped inside one warmed up JVM: the rate constants and period of the diurnal curve, and
+ * the bounds that work items draw their parameters within.
+ *
+ * The settings are held in an immutable {@link Snapshot} behind a volatile reference, so the
+ * master and the workers read them without locking, and a work item sees the settings of one
+ * version throughout.  Each change makes a new snapshot with the next version.  Changes come from
+ * a watched properties file, which is read whenever it is modified, and from a socket on the
+ * loopback interface, on which each line is a command:
+ *
+ * <pre>
+ * get                                  answers with the version and every setting
+ * set sleepProbability=10 maxListSize=5000  applies the settings as one change
+ * </pre>
+ *
+ * A change that names an unknown setting, or leaves the settings inconsistent, is rejected as a
+ * whole.  So is a raise of maxListSize beyond its value at startup while either cache is a
+ * {@link CacheType#MAPPED_FILE} cache, whose slots are sized for that value and cannot grow.  The
+ * version, the number of accepted and rejected changes and the value of every setting
+ * are exported as metrics.  Replayed work items keep the parameters they were recorded with.
+ */
+@Singleton
+class LiveSettings {
+  private static final Logger log = Logger.getLogger(LiveSettings.class.getCanonicalName());
+
+  private static final long POLL_MILLIS = 1000;
+
+  /** The settings that may be changed, named as their options are */
+  static final String[] NAMES = {
+      "rateSlopeConstant",
+      "rateInterceptConstant",
+      "diurnalPeriod",
+      "sleepProbability",
+      "workerSleepTime",
+      "minListSize",
+      "maxListSize",
+      "minNumberOfListPartitions",
+      "maxNumberOfListPartitions",
+      "hotProbability",
+      "coldProbability",
+      "maxPartitionParallelism"};
+
+  @Nullable private final File file;
+  private final int adminPort;
+  private final MetricExporter metricExporter;
+  /** The greatest maxListSize that the caches can hold lists of */
+  private final int maxListSizeLimit;
+
+  private final AtomicLong updates = new AtomicLong();
+  private final AtomicLong rejectedUpdates = new AtomicLong();
+  private volatile Snapshot snapshot;
+
+  @Inject
+  LiveSettings(final Settings settings, final MetricExporter metricExporter) {
+    this.file = settings.getLiveSettingsFile();
+    this.adminPort = settings.getAdminPort();
+    this.metricExporter = metricExporter;
+    this.maxListSizeLimit = settings.getHotCacheType() == CacheType.MAPPED_FILE
+        || settings.getColdCacheType() == CacheType.MAPPED_FILE
+        ? settings.getMaxListSize() : Integer.MAX_VALUE;
+
+    final ImmutableMap.Builder<String, Number> values = ImmutableMap.builder();
+    values.put("rateSlopeConstant", settings.getRateSlopeConstant());
+    values.put("rateInterceptConstant", settings.getRateInterceptConstant());
+    values.put("diurnalPeriod", settings.getDiurnalPeriod());
+    values.put("sleepProbability", settings.getSleepProbability());
+    values.put("workerSleepTime", settings.getWorkerSleepTime());
+    values.put("minListSize", settings.getMinListSize());
+    values.put("maxListSize", settings.getMaxListSize());
+    values.put("minNumberOfListPartitions", settings.getMinNumberOfListPartitions());
+    values.put("maxNumberOfListPartitions", settings.getMaxNumberOfListPartitions());
+    values.put("hotProbability", settings.getHotProbability());
+    values.put("coldProbability", settings.getColdProbability());
+    values.put("maxPartitionParallelism", settings.getMaxPartitionParallelism());
+    this.snapshot = new Snapshot(0, values.build());
+  }
+
+  /** Returns the current settings */
+  Snapshot get() {
+    return snapshot;
+  }
+
+  /**
+   * Apply the changed settings, given as strings by name, as one change.
+   *
+   * @throws IllegalArgumentException if a setting is unknown or malformed, or the changed settings
+   *     are inconsistent, in which case nothing is changed.
+   */
+  synchronized Snapshot update(final Map<String, String> changes, final String source) {
+    try {
+      final Map<String, Number> values = new LinkedHashMap<String, Number>(snapshot.values);
+      for (final Map.Entry<String, String> change : changes.entrySet()) {
+        final Number current = values.get(change.getKey());
+        Preconditions.checkArgument(current != null, "%s is not a live setting.", change.getKey());
+        final String value = change.getValue().trim();
+        try {
+          if (current instanceof Double) {
+            values.put(change.getKey(), Double.valueOf(value));
+          } else {
+            values.put(change.getKey(), Integer.valueOf(value));
+          }
+        } catch (final NumberFormatException e) {
+          throw new IllegalArgumentException(
+              String.format("%s is not a valid %s.", value, change.getKey()), e);
+        }
+      }
+      Preconditions.checkArgument(values.get("maxListSize").intValue() <= maxListSizeLimit,
+          "maxListSize must be at most %s, which MAPPED_FILE cache slots are sized for.",
+          maxListSizeLimit);
+      final Snapshot updated = new Snapshot(snapshot.version + 1, ImmutableMap.copyOf(values));
+      snapshot = updated;
+      updates.incrementAndGet();
+      log.info(String.format("Changed the live settings to version %d from %s: %s",
+          updated.version, source, changes));
+      return updated;
+    } catch (final IllegalArgumentException e) {
+      rejectedUpdates.incrementAndGet();
+      throw e;
+    }
+  }
+
+  /**
+   * Register the metrics of the live settings and start watching the file and listening on the
+   * admin port, if they are set.  The metric exporter must already be initialized.
+   *
+   * @throws IOException if the admin port could not be listened on.
+   */
+  void start() throws IOException {
+    metricExporter.register("jta_settings_version",
+        "The version of the live settings, which each accepted change increments",
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return snapshot.version;
+          }
+        });
+    metricExporter.register("jta_settings_updates",
+        "The number of changes to the live settings accepted since startup",
+        Metric.make(updates));
+    metricExporter.register("jta_settings_rejected_updates",
+        "The number of changes to the live settings rejected since startup",
+        Metric.make(rejectedUpdates));
+    for (final String name : NAMES) {
+      metricExporter.register("jta_setting_" + name.replaceAll("([A-Z])", "_$1").toLowerCase(),
+          "The live value of the " + name + " setting",
+          new MetricListener<Number>() {
+            @Override
+            public Number value() {
+              return snapshot.values.get(name);
+            }
+          });
+    }
+
+    if (file != null) {
+      watch(file);
+    }
+    if (adminPort >= 0) {
+      listen(new ServerSocket(adminPort, 0, InetAddress.getByName(null)));
+    }
+  }
+
+  /** Apply the file now, if it exists, and again whenever it is modified */
+  private void watch(final File file) {
+    final Thread watcher = new Thread("live-settings-file") {
+      private long lastModified = 0;
+      private long lastLength = -1;
+
+      @Override
+      public void run() {
+        log.info("Watching " + file + " for changes to the live settings.");
+        try {
+          while (true) {
+            if (file.lastModified() != lastModified || file.length() != lastLength) {
+              lastModified = file.lastModified();
+              lastLength = file.length();
+              if (file.isFile()) {
+                apply(file);
+              }
+            }
+            TimeUnit.MILLISECONDS.sleep(POLL_MILLIS);
+          }
+        } catch (final InterruptedException e) {
+          log.info("The live settings file watcher was interrupted.");
+        }
+      }
+    };
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  private void apply(final File file) {
+    final Properties properties = new Properties();
+    try {
+      final InputStream input = new FileInputStream(file);
+      try {
+        properties.load(input);
+      } finally {
+        input.close();
+      }
+      final Map<String, String> changes = new LinkedHashMap<String, String>();
+      for (final String name : properties.stringPropertyNames()) {
+        changes.put(name, properties.getProperty(name));
+      }
+      update(changes, file.toString());
+    } catch (final IOException e) {
+      log.log(Level.WARNING, "Unable to read the live settings from " + file, e);
+    } catch (final IllegalArgumentException e) {
+      log.warning(String.format("Rejected the live settings in %s: %s", file, e.getMessage()));
+    }
+  }
+
+  /** Serve the commands of each connection to the admin port on a thread of its own */
+  private void listen(final ServerSocket serverSocket) {
+    log.info(String.format("Serving the live settings on %s.",
+        serverSocket.getLocalSocketAddress()));
+    final Thread acceptor = new Thread("live-settings-acceptor") {
+      @Override
+      public void run() {
+        while (true) {
+          try {
+            final Socket socket = serverSocket.accept();
+            final Thread connection =
+                new Thread("live-settings-" + socket.getRemoteSocketAddress()) {
+                  @Override
+                  public void run() {
+                    serve(socket);
+                  }
+                };
+            connection.setDaemon(true);
+            connection.start();
+          } catch (final IOException e) {
+            log.log(Level.WARNING, "Unable to accept an admin connection", e);
+          }
+        }
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  private void serve(final Socket socket) {
+    try {
+      try {
+        final BufferedReader input = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+        final PrintWriter output = new PrintWriter(
+            new OutputStreamWriter(socket.getOutputStream(), Charsets.UTF_8), true);
+        String line;
+        while ((line = input.readLine()) != null) {
+          final String[] words = line.trim().split("\\s+");
+          if (words[0].isEmpty()) {
+            continue;
+          } else if (words[0].equals("get")) {
+            output.println(snapshot);
+          } else if (words[0].equals("set")) {
+            output.println(set(words, socket.getRemoteSocketAddress().toString()));
+          } else {
+            output.println("error Unknown command " + words[0] + "; use get or set.");
+          }
+        }
+      } finally {
+        socket.close();
+      }
+    } catch (final IOException e) {
+      log.log(Level.WARNING, "Unable to serve an admin connection", e);
+    }
+  }
+
+  /** Apply the name=value words after set, and returns the answer to the command */
+  private String set(final String[] words, final String source) {
+    if (words.length < 2) {
+      return "error Expected set name=value ...";
+    }
+    final Map<String, String> changes = new LinkedHashMap<String, String>();
+    for (int i = 1; i < words.length; i++) {
+      final int eq = words[i].indexOf('=');
+      if (eq <= 0) {
+        return "error Expected name=value, not " + words[i] + ".";
+      }
+      changes.put(words[i].substring(0, eq), words[i].substring(eq + 1));
+    }
+    try {
+      return "ok " + update(changes, source);
+    } catch (final IllegalArgumentException e) {
+      return "error " + e.getMessage();
+    }
+  }
+
+  /** One version of the live settings */
+  static final class Snapshot {
+    private final long version;
+    private final ImmutableMap<String, Number> values;
+    private final double rateSlopeConstant;
+    private final double rateInterceptConstant;
+    private final double diurnalPeriod;
+    private final WorkItemParameters parameters;
+
+    /** @throws IllegalArgumentException if the values are inconsistent. */
+    private Snapshot(final long version, final ImmutableMap<String, Number> values) {
+      this.version = version;
+      this.values = values;
+      this.rateSlopeConstant = values.get("rateSlopeConstant").doubleValue();
+      this.rateInterceptConstant = values.get("rateInterceptConstant").doubleValue();
+      this.diurnalPeriod = values.get("diurnalPeriod").doubleValue();
+      final int sleepProbability = values.get("sleepProbability").intValue();
+      final int workerSleepTime = values.get("workerSleepTime").intValue();
+      final int minListSize = values.get("minListSize").intValue();
+      final int maxListSize = values.get("maxListSize").intValue();
+      final int minPartitions = values.get("minNumberOfListPartitions").intValue();
+      final int maxPartitions = values.get("maxNumberOfListPartitions").intValue();
+      final int hotProbability = values.get("hotProbability").intValue();
+      final int coldProbability = values.get("coldProbability").intValue();
+      final int maxPartitionParallelism = values.get("maxPartitionParallelism").intValue();
+
+      Preconditions.checkArgument(diurnalPeriod > 0.0, "diurnalPeriod must be positive.");
+      Preconditions.checkArgument(sleepProbability >= 0 && sleepProbability <= 100,
+          "sleepProbability must be between 0 and 100.");
+      Preconditions.checkArgument(workerSleepTime >= 0, "workerSleepTime must not be negative.");
+      Preconditions.checkArgument(maxListSize > 0, "maxListSize must be positive.");
+      Preconditions.checkArgument(minListSize >= 0 && minListSize <= maxListSize,
+          "minListSize must be between 0 and maxListSize.");
+      Preconditions.checkArgument(minPartitions > 0 && minPartitions <= maxPartitions,
+          "minNumberOfListPartitions must be positive and no greater than "
+          + "maxNumberOfListPartitions.");
+      Preconditions.checkArgument(hotProbability >= 0 && hotProbability <= 100,
+          "hotProbability must be between 0 and 100.");
+      Preconditions.checkArgument(coldProbability >= 0 && coldProbability <= 100,
+          "coldProbability must be between 0 and 100.");
+      Preconditions.checkArgument(maxPartitionParallelism > 0,
+          "maxPartitionParallelism must be positive.");
+
+      this.parameters = new WorkItemParameters(sleepProbability, workerSleepTime, minListSize,
+          maxListSize, minPartitions, maxPartitions, hotProbability, coldProbability,
+          maxPartitionParallelism);
+    }
+
+    /** Returns the version, which starts at 0 with the settings given on the command line */
+    long getVersion() {
+      return version;
+    }
+
+    double getRateSlopeConstant() {
+      return rateSlopeConstant;
+    }
+
+    double getRateInterceptConstant() {
+      return rateInterceptConstant;
+    }
+
+    double getDiurnalPeriod() {
+      return diurnalPeriod;
+    }
+
+    /** Returns the parameters that newly generated work items draw within */
+    WorkItemParameters getParameters() {
+      return parameters;
+    }
+
+    /** Returns the version and the settings as version=N name=value ... */
+    @Override
+    public String toString() {
+      final StringBuilder builder = new StringBuilder("version=").append(version);
+      for (final Map.Entry<String, Number> value : values.entrySet()) {
+        builder.append(' ').append(value.getKey()).append('=').append(value.getValue());
+      }
+      return builder.toString();
+    }
+  }
+}
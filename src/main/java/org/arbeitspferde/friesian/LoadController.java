@@ -0,0 +1,249 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.arbeitspferde.friesian.utility.ControlTarget;
+import org.arbeitspferde.friesian.utility.MetricExporter;
+import org.arbeitspferde.friesian.utility.MetricListener;
+import org.arbeitspferde.friesian.utility.Settings;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Holds a measure of garbage collector stress at a setpoint by scaling the load up and down, so
+ * that a single command reaches a stable GC regime without trial and error.
+ *
+ * Once a second the controller measures its target, which is the occupancy of the old generation,
+ * the allocation rate or the share of time spent collecting, and multiplies the load multiplier by
+ * exp(gain * (setpoint - measurement) / setpoint).  This is an integral controller in logarithmic
+ * space: the multiplier keeps moving while there is an error, by the same proportion for the same
+ * relative error whatever the scale of the load.  The multiplier scales both the arrival rate and
+ * the probabilities that work items update the caches, and is kept within
+ * [{@link #MIN_MULTIPLIER}, {@link #MAX_MULTIPLIER}] so that it recovers quickly once the target
+ * is reachable again.
+ *
+ * The occupancy of the old generation only falls when the old generation is collected, and the
+ * caches hold on to their contents whatever the load, so it reacts slowly and is best held with a
+ * small gain.
+ */
+@Singleton
+class LoadController {
+  private static final Logger log = Logger.getLogger(LoadController.class.getCanonicalName());
+
+  private static final long INTERVAL_MILLIS = 1000;
+  static final double MIN_MULTIPLIER = 0.01;
+  static final double MAX_MULTIPLIER = 100.0;
+
+  private final ControlTarget target;
+  private final double setpoint;
+  private final double gain;
+  private final MetricExporter metricExporter;
+  private final AllocationMeter allocationMeter;
+
+  private volatile double multiplier = 1.0;
+  private volatile double measurement;
+
+  @Inject
+  LoadController(final Settings settings, final MetricExporter metricExporter,
+      final AllocationMeter allocationMeter) {
+    this.target = settings.getControlTarget();
+    this.setpoint = settings.getControlSetpoint();
+    this.gain = settings.getControlGain();
+    this.metricExporter = metricExporter;
+    this.allocationMeter = allocationMeter;
+
+    Preconditions.checkArgument(target == ControlTarget.NONE || setpoint > 0.0,
+        "controlSetpoint must be positive.");
+    Preconditions.checkArgument(gain > 0.0, "controlGain must be positive.");
+    Preconditions.checkArgument(
+        target != ControlTarget.ALLOCATION_RATE || allocationMeter.isSupported(),
+        "This JVM does not count allocated bytes, so ALLOCATION_RATE cannot be controlled.");
+  }
+
+  /**
+   * Start controlling the load and register the controller's metrics, unless there is no target.
+   * The metric exporter must already be initialized.
+   */
+  void start() {
+    if (target == ControlTarget.NONE) {
+      return;
+    }
+
+    metricExporter.register("jta_controller_setpoint",
+        "The value that the load controller holds its target at",
+        new MetricListener<Double>() {
+          @Override
+          public Double value() {
+            return setpoint;
+          }
+        });
+    metricExporter.register("jta_controller_measurement",
+        "The value of the load controller's target that it last measured",
+        new MetricListener<Double>() {
+          @Override
+          public Double value() {
+            return measurement;
+          }
+        });
+    metricExporter.register("jta_controller_multiplier",
+        "The factor by which the load controller scales the arrival rate and cache churn",
+        new MetricListener<Double>() {
+          @Override
+          public Double value() {
+            return multiplier;
+          }
+        });
+
+    final Thread controller = new Thread("load-controller") {
+      @Override
+      public void run() {
+        final Sensor sensor = createSensor();
+        try {
+          while (true) {
+            TimeUnit.MILLISECONDS.sleep(INTERVAL_MILLIS);
+            measurement = sensor.measure();
+            final double error = (setpoint - measurement) / setpoint;
+            multiplier = Math.max(MIN_MULTIPLIER,
+                Math.min(MAX_MULTIPLIER, multiplier * Math.exp(gain * error)));
+          }
+        } catch (final InterruptedException e) {
+          log.info("The load controller was interrupted.");
+        }
+      }
+    };
+    controller.setDaemon(true);
+    controller.start();
+
+    log.info(String.format("Holding %s at %s.", target, setpoint));
+  }
+
+  /** Returns the arrival rate scaled by the multiplier */
+  ArrivalScheduler.ArrivalRate control(final ArrivalScheduler.ArrivalRate rate) {
+    if (target == ControlTarget.NONE) {
+      return rate;
+    }
+    return new ArrivalScheduler.ArrivalRate() {
+      @Override
+      public double getArrivalsPerSecond(final long elapsedNanos) {
+        return rate.getArrivalsPerSecond(elapsedNanos) * multiplier;
+      }
+    };
+  }
+
+  /** Returns the parameters with cache update probabilities scaled by the multiplier */
+  WorkItemParameters control(final WorkItemParameters parameters) {
+    if (target == ControlTarget.NONE) {
+      return parameters;
+    }
+    return parameters.scaleCacheProbabilities(multiplier);
+  }
+
+  /** A measure of the target, which is taken once per interval */
+  private interface Sensor {
+    double measure();
+  }
+
+  private Sensor createSensor() {
+    switch (target) {
+      case ALLOCATION_RATE:
+        return new Sensor() {
+          private long lastBytes = allocationMeter.getAllocatedBytes();
+          private long lastNanos = System.nanoTime();
+
+          @Override
+          public double measure() {
+            final long bytes = allocationMeter.getAllocatedBytes();
+            final long nanos = System.nanoTime();
+            final double megabytesPerSecond = (bytes - lastBytes) / (1024.0 * 1024.0)
+                / ((nanos - lastNanos) / (double) TimeUnit.SECONDS.toNanos(1));
+            lastBytes = bytes;
+            lastNanos = nanos;
+            return megabytesPerSecond;
+          }
+        };
+      case GC_TIME:
+        return new Sensor() {
+          private final List<GarbageCollectorMXBean> collectors =
+              ManagementFactory.getGarbageCollectorMXBeans();
+          private long lastCollectionMillis = collectionMillis();
+          private long lastNanos = System.nanoTime();
+
+          @Override
+          public double measure() {
+            final long collectionMillis = collectionMillis();
+            final long nanos = System.nanoTime();
+            final double percentage = 100.0 * (collectionMillis - lastCollectionMillis)
+                / TimeUnit.NANOSECONDS.toMillis(Math.max(1L, nanos - lastNanos));
+            lastCollectionMillis = collectionMillis;
+            lastNanos = nanos;
+            return percentage;
+          }
+
+          private long collectionMillis() {
+            long millis = 0;
+            for (final GarbageCollectorMXBean collector : collectors) {
+              millis += Math.max(0L, collector.getCollectionTime());
+            }
+            return millis;
+          }
+        };
+      case OLD_GEN_OCCUPANCY:
+      default:
+        final MemoryPoolMXBean oldGeneration = findOldGeneration();
+        log.info("The load controller watches the " + oldGeneration.getName() + " pool.");
+        return new Sensor() {
+          @Override
+          public double measure() {
+            final MemoryUsage usage = oldGeneration.getUsage();
+            final long capacity = usage.getMax() > 0 ? usage.getMax() : usage.getCommitted();
+            return 100.0 * usage.getUsed() / Math.max(1L, capacity);
+          }
+        };
+    }
+  }
+
+  /**
+   * Returns the heap pool of the old generation, or the largest heap pool if no pool is named as
+   * the old generation, as with collectors that have but one generation.
+   */
+  private static MemoryPoolMXBean findOldGeneration() {
+    MemoryPoolMXBean largest = null;
+    for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() != MemoryType.HEAP) {
+        continue;
+      }
+      if (pool.getName().contains("Old") || pool.getName().contains("Tenured")) {
+        return pool;
+      }
+      if (largest == null || pool.getUsage().getMax() > largest.getUsage().getMax()) {
+        largest = pool;
+      }
+    }
+    Preconditions.checkState(largest != null, "This JVM has no heap memory pools.");
+    return largest;
+  }
+}
@@ -0,0 +1,192 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
+
+import org.arbeitspferde.friesian.utility.Settings;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The built-in shapes of the arrival rate over time, which the master paces arrivals by.
+ *
+ * Every shape is an {@link ArrivalScheduler.ArrivalRate} of the time since the start of the
+ * schedule, so another shape can be plugged in by binding the rate named "loadShape" in a module
+ * of its own.  The shapes compute their rate without allocating, as the master asks for it once
+ * per arrival.
+ */
+final class LoadShapes {
+  private LoadShapes() {
+  }
+
+  /**
+   * Returns the shape that the settings select.
+   *
+   * @throws IOException if the schedule of the CSV shape could not be read.
+   */
+  static ArrivalScheduler.ArrivalRate create(final Settings settings,
+      final LiveSettings liveSettings) throws IOException {
+    final double base = settings.getShapeBaseRate();
+    final double peak = settings.getShapePeakRate();
+    final long periodNanos = (long) (settings.getShapePeriod() * TimeUnit.SECONDS.toNanos(1));
+    final double dutyCycle = settings.getShapeDutyCycle();
+    switch (settings.getLoadShape()) {
+      case STEP:
+        return step(base, peak, periodNanos);
+      case RAMP:
+        return ramp(base, peak, periodNanos);
+      case SPIKE:
+        return spike(base, peak, periodNanos, (long) (periodNanos * dutyCycle));
+      case SQUARE_WAVE:
+        return squareWave(base, peak, periodNanos, dutyCycle);
+      case CSV:
+        Preconditions.checkArgument(settings.getShapeFile() != null,
+            "The CSV load shape needs a --shapeFile.");
+        return schedule(settings.getShapeFile());
+      case DIURNAL:
+      default:
+        return diurnal(liveSettings);
+    }
+  }
+
+  /**
+   * Returns the diurnal curve d = -cos(2 * pi * elapsed / period) + 1.5, scaled by the live rate
+   * slope constant and offset by the live rate intercept constant.
+   */
+  static ArrivalScheduler.ArrivalRate diurnal(final LiveSettings liveSettings) {
+    return new ArrivalScheduler.ArrivalRate() {
+      @Override
+      public double getArrivalsPerSecond(final long elapsedNanos) {
+        final LiveSettings.Snapshot snapshot = liveSettings.get();
+        final double curve = (
+            -1.0 * Math.cos(
+                (TimeUnit.NANOSECONDS.toMillis(elapsedNanos) / (snapshot.getDiurnalPeriod()
+                * 60.0 * 60.0 * 1000.0)) * Math.PI * 2.0)) + 1.5;
+        return (snapshot.getRateSlopeConstant() * curve) + snapshot.getRateInterceptConstant();
+      }
+    };
+  }
+
+  /** Returns the base rate until the given time, and the peak rate from then on */
+  static ArrivalScheduler.ArrivalRate step(final double base, final double peak,
+      final long atNanos) {
+    return new ArrivalScheduler.ArrivalRate() {
+      @Override
+      public double getArrivalsPerSecond(final long elapsedNanos) {
+        return elapsedNanos < atNanos ? base : peak;
+      }
+    };
+  }
+
+  /** Returns a rate that rises linearly from the base rate to the peak rate, and stays there */
+  static ArrivalScheduler.ArrivalRate ramp(final double base, final double peak,
+      final long durationNanos) {
+    return new ArrivalScheduler.ArrivalRate() {
+      @Override
+      public double getArrivalsPerSecond(final long elapsedNanos) {
+        if (elapsedNanos >= durationNanos) {
+          return peak;
+        }
+        return base + (peak - base) * elapsedNanos / durationNanos;
+      }
+    };
+  }
+
+  /** Returns the base rate, but for one stretch of the peak rate that starts at the given time */
+  static ArrivalScheduler.ArrivalRate spike(final double base, final double peak,
+      final long atNanos, final long durationNanos) {
+    return new ArrivalScheduler.ArrivalRate() {
+      @Override
+      public double getArrivalsPerSecond(final long elapsedNanos) {
+        return elapsedNanos >= atNanos && elapsedNanos - atNanos < durationNanos ? peak : base;
+      }
+    };
+  }
+
+  /** Returns the peak rate for the duty cycle's share of the start of every period, else base */
+  static ArrivalScheduler.ArrivalRate squareWave(final double base, final double peak,
+      final long periodNanos, final double dutyCycle) {
+    Preconditions.checkArgument(periodNanos > 0, "shapePeriod must be positive.");
+    final long highNanos = (long) (periodNanos * dutyCycle);
+    return new ArrivalScheduler.ArrivalRate() {
+      @Override
+      public double getArrivalsPerSecond(final long elapsedNanos) {
+        return elapsedNanos % periodNanos < highNanos ? peak : base;
+      }
+    };
+  }
+
+  /**
+   * Returns the rates of a schedule, such as one taken from production, read from a CSV file of
+   * lines of seconds since the start and arrivals per second in ascending order of time.  Each
+   * rate holds until the time of the next, the first holds from the start and the last holds for
+   * good.  Blank lines and lines starting with # are skipped, and so is the first other line if it
+   * is not a time and a rate, which makes it a header.
+   *
+   * @throws IOException if the file could not be read.
+   * @throws IllegalArgumentException if the file holds no schedule, or a line other than the
+   *     header is malformed.
+   */
+  static ArrivalScheduler.ArrivalRate schedule(final File file) throws IOException {
+    final List<String> lines = Files.readLines(file, Charsets.UTF_8);
+    final long[] times = new long[lines.size()];
+    final double[] rates = new double[lines.size()];
+    int count = 0;
+    boolean headerSeen = false;
+    for (int i = 0; i < lines.size(); i++) {
+      final String line = lines.get(i).trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      final boolean mayBeHeader = !headerSeen;
+      headerSeen = true;
+      final String[] fields = line.split("\\s*,\\s*");
+      Preconditions.checkArgument(fields.length >= 2,
+          "Line %s of %s is not seconds,arrivals per second.", i + 1, file);
+      try {
+        times[count] = (long) (Double.parseDouble(fields[0]) * TimeUnit.SECONDS.toNanos(1));
+        rates[count] = Double.parseDouble(fields[1]);
+      } catch (final NumberFormatException e) {
+        if (mayBeHeader) {
+          continue;
+        }
+        throw new IllegalArgumentException(
+            String.format("Line %d of %s is not seconds,arrivals per second.", i + 1, file), e);
+      }
+      Preconditions.checkArgument(count == 0 || times[count] > times[count - 1],
+          "The times in %s must ascend, which those on line %s do not.", file, i + 1);
+      count++;
+    }
+    Preconditions.checkArgument(count > 0, "%s holds no schedule.", file);
+
+    final long[] scheduleTimes = Arrays.copyOf(times, count);
+    final double[] scheduleRates = Arrays.copyOf(rates, count);
+    return new ArrivalScheduler.ArrivalRate() {
+      @Override
+      public double getArrivalsPerSecond(final long elapsedNanos) {
+        final int index = Arrays.binarySearch(scheduleTimes, elapsedNanos);
+        return scheduleRates[Math.max(0, index >= 0 ? index : -index - 2)];
+      }
+    };
+  }
+}
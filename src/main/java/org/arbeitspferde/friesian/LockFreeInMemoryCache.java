@@ -0,0 +1,74 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+
+/**
+ * Implements a thread-safe cache of fixed capacity without locks.
+ *
+ * Like {@link HardReferenceInMemoryCache}, updates fill the cache from the front until it is full
+ * and overwrite the given index afterwards.  The slots live in an {@link AtomicReferenceArray} and
+ * the fill position is claimed with a compare-and-set, so concurrent workers never wait on each
+ * other and the cache can never grow beyond its capacity.
+ *
+ * @param <T> the type of elements contained in the cache
+ */
+class LockFreeInMemoryCache<T> implements Cache<T> {
+  private final int cacheSize;
+  private final AtomicReferenceArray<T> cache;
+  private final AtomicInteger filled = new AtomicInteger();
+
+  public LockFreeInMemoryCache(final int cacheSize) throws IllegalArgumentException {
+    Preconditions.checkArgument(cacheSize > 0, "cacheSize must be positive.");
+
+    this.cache = new AtomicReferenceArray<T>(cacheSize);
+    this.cacheSize = cacheSize;
+  }
+
+  @Override
+  public int getCacheSize() {
+    return cacheSize;
+  }
+
+  @Override
+  public void update(final int index, final T data) throws IndexOutOfBoundsException {
+    Preconditions.checkElementIndex(index, cacheSize);
+
+    int position = filled.get();
+    while (position < cacheSize) {
+      if (filled.compareAndSet(position, position + 1)) {
+        cache.set(position, data);
+        return;
+      }
+      position = filled.get();
+    }
+    cache.set(index, data);
+  }
+
+  @Override
+  @Nullable
+  public T get(final int index) {
+    Preconditions.checkElementIndex(index, cacheSize);
+
+    return cache.get(index);
+  }
+}
@@ -0,0 +1,180 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Implements a thread-safe cache of fixed capacity that keeps work lists in a memory-mapped file.
+ *
+ * The file is divided into equally sized slots, one per cache index.  Each slot holds the length of
+ * its list followed by the elements as a run of native-order ints.  A list is written into its slot
+ * element by element, without first being copied on the heap, and read back with a single bulk
+ * transfer from the page cache.  The file is mapped in regions of up to a gigabyte that each hold
+ * as many whole slots as fit, and every slot is a view into its region, so a large cache takes a
+ * handful of mappings rather than one per slot, which would soon exceed the operating system's
+ * limit on mappings per process (vm.max_map_count on Linux).  The file is sparse until slots are
+ * written, which lets the cache hold far more than the heap would while leaving retention to the
+ * operating system instead of the garbage collector.
+ *
+ * Updates fill the cache from the front until it is full and overwrite the given index afterwards,
+ * as {@link HardReferenceInMemoryCache} does.  The file is deleted when the JVM exits.
+ */
+class MappedFileIntListCache implements Cache<List<Integer>> {
+  private static final Logger log =
+      Logger.getLogger(MappedFileIntListCache.class.getCanonicalName());
+
+  /** The largest region of the file mapped at once, unless a single slot is larger */
+  private static final long REGION_BYTES = 1L << 30;
+
+  private final int cacheSize;
+  private final int slotCapacity;
+  private final File file;
+  private final IntBuffer[] slots;
+  private final Object[] slotLocks;
+  /** The number of elements in each slot, or -1 if it was never written; guarded by its lock */
+  private final int[] slotLengths;
+  private final AtomicInteger filled = new AtomicInteger();
+  private final AtomicLong storedBytes = new AtomicLong();
+
+  /**
+   * @param cacheSize The number of lists the cache holds.
+   * @param slotCapacity The largest number of elements a cached list may have.
+   * @param directory Where the backing file is created.
+   */
+  public MappedFileIntListCache(final int cacheSize, final int slotCapacity,
+      final File directory) throws IOException {
+    Preconditions.checkArgument(cacheSize > 0, "cacheSize must be positive.");
+    Preconditions.checkArgument(slotCapacity > 0, "slotCapacity must be positive.");
+    Preconditions.checkArgument(slotCapacity < Integer.MAX_VALUE / 4,
+        "slotCapacity is too large to be mapped.");
+
+    this.cacheSize = cacheSize;
+    this.slotCapacity = slotCapacity;
+    this.slots = new IntBuffer[cacheSize];
+    this.slotLocks = new Object[cacheSize];
+    this.slotLengths = new int[cacheSize];
+    Arrays.fill(slotLengths, -1);
+
+    final int slotInts = slotCapacity + 1;
+    final long slotBytes = 4L * slotInts;
+    final int slotsPerRegion = (int) Math.min(cacheSize, Math.max(1, REGION_BYTES / slotBytes));
+    this.file = File.createTempFile("friesian-cache-", ".slots", directory);
+    file.deleteOnExit();
+
+    int regions = 0;
+    final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      randomAccessFile.setLength(slotBytes * cacheSize);
+      final FileChannel channel = randomAccessFile.getChannel();
+      for (int first = 0; first < cacheSize; first += slotsPerRegion) {
+        final int count = Math.min(slotsPerRegion, cacheSize - first);
+        final IntBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, slotBytes * first,
+            slotBytes * count).order(ByteOrder.nativeOrder()).asIntBuffer();
+        regions++;
+        for (int i = 0; i < count; i++) {
+          region.clear();
+          region.position(i * slotInts);
+          region.limit((i + 1) * slotInts);
+          slots[first + i] = region.slice();
+          slotLocks[first + i] = new Object();
+        }
+      }
+    } finally {
+      // The mappings remain valid once the file is closed.
+      randomAccessFile.close();
+    }
+
+    log.info(String.format("Mapped %d slots of %d bytes in %d regions from %s.", cacheSize,
+        slotBytes, regions, file));
+  }
+
+  @Override
+  public int getCacheSize() {
+    return cacheSize;
+  }
+
+  @Override
+  public void update(final int index, final List<Integer> data) throws IndexOutOfBoundsException {
+    Preconditions.checkElementIndex(index, cacheSize);
+    Preconditions.checkNotNull(data, "data may not be null.");
+    Preconditions.checkArgument(data.size() <= slotCapacity,
+        "A list of %s elements does not fit into a slot of %s.", data.size(), slotCapacity);
+
+    int slot = index;
+    int position = filled.get();
+    while (position < cacheSize) {
+      if (filled.compareAndSet(position, position + 1)) {
+        slot = position;
+        break;
+      }
+      position = filled.get();
+    }
+
+    synchronized (slotLocks[slot]) {
+      final IntBuffer ints = slots[slot];
+      ints.put(0, data.size());
+      ints.position(1);
+      for (final Integer value : data) {
+        ints.put(value);
+      }
+      storedBytes.addAndGet(4L * (data.size() - Math.max(slotLengths[slot], 0)));
+      slotLengths[slot] = data.size();
+    }
+  }
+
+  @Override
+  @Nullable
+  public List<Integer> get(final int index) {
+    Preconditions.checkElementIndex(index, cacheSize);
+
+    synchronized (slotLocks[index]) {
+      if (slotLengths[index] < 0) {
+        return null;
+      }
+      final IntBuffer ints = slots[index];
+      final int[] values = new int[ints.get(0)];
+      ints.position(1);
+      ints.get(values);
+      return Ints.asList(values);
+    }
+  }
+
+  /** Returns the size of the backing file in bytes */
+  public long getFileBytes() {
+    return file.length();
+  }
+
+  /** Returns the number of bytes that the cached lists occupy in the file */
+  public long getStoredBytes() {
+    return storedBytes.get();
+  }
+}
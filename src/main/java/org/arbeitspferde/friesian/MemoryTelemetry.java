@@ -0,0 +1,245 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+
+import org.arbeitspferde.friesian.utility.LatencyHistogram;
+import org.arbeitspferde.friesian.utility.Metric;
+import org.arbeitspferde.friesian.utility.MetricExporter;
+import org.arbeitspferde.friesian.utility.MetricListener;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Exports what the JVM's memory system is doing under the load, so that a run can be judged from
+ * its metrics alone: the bytes allocated by all threads and their rate, the occupancy of each heap
+ * pool, and the collections and pauses of each garbage collector.
+ *
+ * The allocation rate is sampled once a second by a daemon thread.  Collections are counted from
+ * the notifications that each collector sends when it finishes, which carry the duration of the
+ * collection in milliseconds.  Pauses are recorded in microseconds, as those of ZGC and Shenandoah
+ * take less than a millisecond.  Where JDK Flight Recorder can be streamed (Java 14 and later),
+ * they are taken from its pause events, which are timed in nanoseconds and delivered about once a
+ * second.  Elsewhere they are the durations of stop-the-world collections from the notifications;
+ * collectors that name their concurrent cycles apart from their pauses, as G1, ZGC and Shenandoah
+ * do, only have the latter recorded, since a concurrent cycle does not stop the workers.
+ */
+@Singleton
+class MemoryTelemetry {
+  private static final Logger log = Logger.getLogger(MemoryTelemetry.class.getCanonicalName());
+
+  private static final long INTERVAL_MILLIS = 1000;
+
+  /** The Flight Recorder event of each stop-the-world pause, of any collector */
+  private static final String PAUSE_EVENT = "jdk.GCPhasePause";
+
+  private final MetricExporter metricExporter;
+  private final AllocationMeter allocationMeter;
+
+  private final LatencyHistogram pauses = new LatencyHistogram();
+  private final AtomicLong allocatedBytes = new AtomicLong();
+  private volatile double allocationRate;
+
+  @Inject
+  MemoryTelemetry(final MetricExporter metricExporter, final AllocationMeter allocationMeter) {
+    this.metricExporter = metricExporter;
+    this.allocationMeter = allocationMeter;
+  }
+
+  /**
+   * Register the memory metrics and start sampling the allocation rate.  The metric exporter must
+   * already be initialized.
+   */
+  void start() {
+    for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() != MemoryType.HEAP) {
+        continue;
+      }
+      final String name = "jta_heap_" + sanitize(pool.getName());
+      metricExporter.register(name + "_used_bytes",
+          "The bytes used in the " + pool.getName() + " heap pool",
+          new MetricListener<Long>() {
+            @Override
+            public Long value() {
+              return pool.getUsage().getUsed();
+            }
+          });
+      metricExporter.register(name + "_max_bytes",
+          "The most bytes the " + pool.getName() + " heap pool may grow to, or -1 if unbounded",
+          new MetricListener<Long>() {
+            @Override
+            public Long value() {
+              return pool.getUsage().getMax();
+            }
+          });
+    }
+
+    final boolean streamingPauses = streamPauses();
+    for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      final String name = "jta_gc_" + sanitize(collector.getName());
+      final AtomicLong count = new AtomicLong();
+      final AtomicLong millis = new AtomicLong();
+      metricExporter.register(name + "_count",
+          "The number of collections by " + collector.getName() + " since startup",
+          Metric.make(count));
+      metricExporter.register(name + "_time_millis",
+          "The milliseconds spent in collections by " + collector.getName() + " since startup",
+          Metric.make(millis));
+      listen(collector, count, millis, !streamingPauses && isPausing(collector.getName()));
+    }
+    metricExporter.register("jta_gc_pause_micros_p50",
+        "The median garbage collection pause in microseconds",
+        Metric.makePercentile(pauses, 50.0));
+    metricExporter.register("jta_gc_pause_micros_p99",
+        "The 99th percentile of garbage collection pauses in microseconds",
+        Metric.makePercentile(pauses, 99.0));
+    metricExporter.register("jta_gc_pause_micros_max",
+        "The longest garbage collection pause in microseconds", Metric.makeMax(pauses));
+
+    if (!allocationMeter.isSupported()) {
+      log.info("This JVM does not count allocated bytes, so no allocation rate is exported.");
+      return;
+    }
+    metricExporter.register("jta_allocated_bytes",
+        "The bytes allocated on the heap by all threads since startup",
+        Metric.make(allocatedBytes));
+    metricExporter.register("jta_allocation_rate",
+        "The bytes per second allocated on the heap by all threads over the last second",
+        new MetricListener<Double>() {
+          @Override
+          public Double value() {
+            return allocationRate;
+          }
+        });
+
+    final Thread sampler = new Thread("memory-telemetry") {
+      @Override
+      public void run() {
+        long lastBytes = allocationMeter.getAllocatedBytes();
+        long lastNanos = System.nanoTime();
+        try {
+          while (true) {
+            TimeUnit.MILLISECONDS.sleep(INTERVAL_MILLIS);
+            final long bytes = allocationMeter.getAllocatedBytes();
+            final long nanos = System.nanoTime();
+            allocatedBytes.set(bytes);
+            allocationRate = (bytes - lastBytes)
+                / ((nanos - lastNanos) / (double) TimeUnit.SECONDS.toNanos(1));
+            lastBytes = bytes;
+            lastNanos = nanos;
+          }
+        } catch (final InterruptedException e) {
+          log.info("The memory telemetry sampler was interrupted.");
+        }
+      }
+    };
+    sampler.setDaemon(true);
+    sampler.start();
+  }
+
+  /** Count the collections of the collector, and record its pauses if it pauses the workers */
+  private void listen(final GarbageCollectorMXBean collector, final AtomicLong count,
+      final AtomicLong millis, final boolean pausing) {
+    if (!(collector instanceof NotificationEmitter)) {
+      log.warning(collector.getName() + " sends no notifications, so its collections are not "
+          + "counted.");
+      return;
+    }
+    ((NotificationEmitter) collector).addNotificationListener(new NotificationListener() {
+      @Override
+      public void handleNotification(final Notification notification, final Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(
+            notification.getType())) {
+          return;
+        }
+        final GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+            (CompositeData) notification.getUserData());
+        final long duration = info.getGcInfo().getDuration();
+        count.incrementAndGet();
+        millis.addAndGet(duration);
+        if (pausing) {
+          pauses.record(TimeUnit.MILLISECONDS.toMicros(duration));
+        }
+      }
+    }, null, null);
+  }
+
+  /**
+   * Record the pauses that Flight Recorder reports, and return whether it can, which needs a JVM
+   * that streams Flight Recorder events and does not have Flight Recorder disabled.
+   */
+  private boolean streamPauses() {
+    try {
+      PauseStream.start(pauses);
+      return true;
+    } catch (final LinkageError e) {
+      log.info("This JVM cannot stream flight recorder events, so pauses are timed in "
+          + "milliseconds.");
+    } catch (final RuntimeException e) {
+      log.log(Level.INFO, "Unable to stream flight recorder events, so pauses are timed in "
+          + "milliseconds.", e);
+    }
+    return false;
+  }
+
+  /** Returns false for the beans that report the concurrent cycles of a collector */
+  private static boolean isPausing(final String collectorName) {
+    return !collectorName.contains("Cycles") && !collectorName.contains("Concurrent");
+  }
+
+  /** Returns the name in lower case, with each run of characters but letters and digits as _ */
+  private static String sanitize(final String name) {
+    return name.toLowerCase().replaceAll("[^a-z0-9]+", "_").replaceAll("^_|_$", "");
+  }
+
+  /**
+   * Streams the pauses of every collector from Flight Recorder into a histogram of microseconds.
+   * It is a class of its own so that a JVM without the streaming classes only fails to link it,
+   * with a {@link LinkageError}, when it is first used.
+   */
+  private static final class PauseStream {
+    static void start(final LatencyHistogram pauses) {
+      final RecordingStream stream = new RecordingStream();
+      stream.enable(PAUSE_EVENT).withoutThreshold();
+      stream.onEvent(PAUSE_EVENT, new Consumer<RecordedEvent>() {
+        @Override
+        public void accept(final RecordedEvent event) {
+          pauses.record(TimeUnit.NANOSECONDS.toMicros(event.getDuration().toNanos()));
+        }
+      });
+      stream.startAsync();
+    }
+  }
+}
@@ -0,0 +1,412 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+import com.google.inject.name.Named;
+
+import org.arbeitspferde.friesian.utility.ObjectSizeDistribution;
+import org.arbeitspferde.friesian.utility.Settings;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.RandomAccess;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A work engine that builds and mutates object graphs, to give the collector a heap whose shape
+ * resembles that of a real server rather than one flat list.
+ *
+ * Each unit of work builds one structure: a binary tree, a linked chain, a map with string keys or
+ * a group of arrays of mixed types, chosen at random, each of a configured number of objects whose
+ * payload sizes follow the configured distribution.  It then mutates a structure built earlier by
+ * the same work item, replacing subtrees, links, map values or arrays, so that older objects come
+ * to reference younger ones.  The work item ends once it has allocated about the configured number
+ * of bytes, optionally paced to a configured allocation rate.
+ *
+ * When the work item is cached, the configured percentage of its structures survives into the
+ * cache as a {@link List} with one element per surviving structure, its estimated size in bytes.
+ * Caches that hold references, such as {@link HardReferenceInMemoryCache}, thereby keep the whole
+ * surviving graph alive; caches that copy their contents keep only the sizes.
+ *
+ * The list size and partition settings do not apply to this engine.
+ */
+class ObjectGraphWorkEngine extends WorkEngine {
+  private static final Logger log =
+      Logger.getLogger(ObjectGraphWorkEngine.class.getCanonicalName());
+
+  /** Rough sizes of object headers and references, as on a 64 bit JVM */
+  private static final int OBJECT_BYTES = 16;
+  private static final int REFERENCE_BYTES = 8;
+
+  /** Payload arrays are never larger than this many times the mean size */
+  private static final int MAXIMUM_SIZE_FACTOR = 64;
+
+  private final Random rng;
+  private final Cache<List<Integer>> hotCache;
+  private final Cache<List<Integer>> coldCache;
+  private final int hotProbability;
+  private final int coldProbability;
+
+  private final long bytesPerWorkItem;
+  private final long allocationRate;
+  private final int objectsPerStructure;
+  private final ObjectSizeDistribution objectSizeDistribution;
+  private final int meanObjectSize;
+  private final int survivorPercentage;
+
+  private final List<Structure> structures = Lists.newArrayList();
+  private long allocatedBytes = 0;
+  private long startNanos;
+
+  @Inject
+  ObjectGraphWorkEngine(Random rng, @Assisted("sleepProbability") int sleepProbability,
+      @Assisted("workerSleepTime") int workerSleepTime,
+      @Assisted("hotCache") Cache<List<Integer>> hotCache,
+      @Assisted("coldCache") Cache<List<Integer>> coldCache,
+      @Assisted("minListSize") int minListSize,
+      @Assisted("maxListSize") int maxListSize,
+      @Assisted("minNumberOfListPartitions") int minNumberOfListPartitions,
+      @Assisted("maxNumberOfListPartitions") int maxNumberOfListPartitions,
+      @Assisted("hotProbability") int hotProbability,
+      @Assisted("coldProbability") int coldProbability,
+      @Assisted("maxPartitionParallelism") int maxPartitionParallelism,
+      @Named("jtaWorkerWorkTime") AtomicLong jtaWorkerWorkTime,
+      @Named("jtaWorkerSleepTime") AtomicLong jtaWorkerSleepTime,
+      WorkLatencies workLatencies, SlotDistributions slotDistributions,
+      Settings settings) {
+
+    super(rng, sleepProbability, workerSleepTime, jtaWorkerWorkTime, jtaWorkerSleepTime,
+        workLatencies, slotDistributions);
+
+    this.rng = rng;
+    this.hotCache = hotCache;
+    this.coldCache = coldCache;
+    this.hotProbability = hotProbability;
+    this.coldProbability = coldProbability;
+    this.bytesPerWorkItem = settings.getGraphBytesPerWorkItem();
+    this.allocationRate = settings.getGraphAllocationRate();
+    this.objectsPerStructure = Math.max(1, settings.getGraphObjectsPerStructure());
+    this.objectSizeDistribution = settings.getGraphObjectSizeDistribution();
+    this.meanObjectSize = Math.max(0, settings.getGraphMeanObjectSize());
+    this.survivorPercentage = settings.getGraphSurvivorPercentage();
+  }
+
+  @Override
+  /** Start the clock that the allocation rate is paced by */
+  void init() {
+    startNanos = System.nanoTime();
+  }
+
+  @Override
+  /** Returns true until the work item has allocated its share of bytes */
+  boolean workNotFinished() {
+    return allocatedBytes < bytesPerWorkItem;
+  }
+
+  @Override
+  /** Build a structure, mutate an earlier one and wait if allocating faster than the rate */
+  void doWork() {
+    final Structure structure;
+    switch (rng.nextInt(4)) {
+      case 0:
+        structure = new Tree(this);
+        break;
+      case 1:
+        structure = new Chain(this);
+        break;
+      case 2:
+        structure = new StringKeyedMap(this);
+        break;
+      default:
+        structure = new MixedArrays(this);
+        break;
+    }
+    allocatedBytes += structure.estimatedBytes;
+
+    if (!structures.isEmpty()) {
+      allocatedBytes += structures.get(rng.nextInt(structures.size())).mutate(this);
+    }
+    structures.add(structure);
+
+    if (allocationRate > 0) {
+      final long dueNanos = startNanos + allocatedBytes * TimeUnit.SECONDS.toNanos(1)
+          / allocationRate;
+      long remainingNanos;
+      while ((remainingNanos = dueNanos - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(remainingNanos);
+      }
+    }
+  }
+
+  @Override
+  /** Possibly cache the surviving structures into the hot or cold caches */
+  void cache() {
+    Cache<List<Integer>> cache = null;
+    int randomNumber = RandomNumber.generatePercentage(this.rng);
+
+    if (randomNumber < this.hotProbability) {
+      cache = this.hotCache;
+    } else if (randomNumber < this.coldProbability + this.hotProbability) {
+      cache = this.coldCache;
+    }
+    if (cache != null) {
+      final List<Structure> survivors = Lists.newArrayList();
+      for (final Structure structure : structures) {
+        if (RandomNumber.generatePercentage(this.rng) <= this.survivorPercentage) {
+          survivors.add(structure);
+        }
+      }
+      try {
+        final int index = chooseSlot(cache);
+        updateCached(cache == this.hotCache ? HOT_CACHE : COLD_CACHE, cache, index,
+            new SurvivingGraph(survivors));
+      } catch (IllegalArgumentException e) {
+        log.log(Level.WARNING, "Problems updating the cache", e);
+      }
+    }
+    structures.clear();
+  }
+
+  /** Returns the size of the next payload array, drawn from the configured distribution */
+  private int nextObjectSize() {
+    switch (objectSizeDistribution) {
+      case FIXED:
+        return meanObjectSize;
+      case UNIFORM:
+        return rng.nextInt(2 * meanObjectSize + 1);
+      case EXPONENTIAL:
+      default:
+        final double size = -meanObjectSize * Math.log(1.0 - rng.nextDouble());
+        return (int) Math.min(size, (double) meanObjectSize * MAXIMUM_SIZE_FACTOR);
+    }
+  }
+
+  /** Returns a new payload array of the next size */
+  private byte[] newPayload() {
+    return new byte[nextObjectSize()];
+  }
+
+  private static long payloadBytes(final byte[] payload) {
+    return OBJECT_BYTES + payload.length;
+  }
+
+  /** A structure built by a work item */
+  private abstract static class Structure {
+    /** The estimated size of the structure as it was built */
+    long estimatedBytes;
+
+    /** Replace some of the structure with new objects and return their estimated size */
+    abstract long mutate(ObjectGraphWorkEngine engine);
+  }
+
+  /** A balanced binary tree of nodes that each carry a payload */
+  private static final class Tree extends Structure {
+    private final TreeNode root;
+
+    Tree(final ObjectGraphWorkEngine engine) {
+      root = build(engine, engine.objectsPerStructure);
+    }
+
+    private TreeNode build(final ObjectGraphWorkEngine engine, final int size) {
+      if (size <= 0) {
+        return null;
+      }
+      final TreeNode node = new TreeNode(engine.newPayload());
+      node.left = build(engine, (size - 1) / 2);
+      node.right = build(engine, size - 1 - (size - 1) / 2);
+      estimatedBytes += OBJECT_BYTES + 2 * REFERENCE_BYTES + payloadBytes(node.payload);
+      return node;
+    }
+
+    /** Replace a subtree at the end of a random path with a new one of up to eight nodes */
+    @Override
+    long mutate(final ObjectGraphWorkEngine engine) {
+      TreeNode node = root;
+      while (true) {
+        final boolean left = engine.rng.nextBoolean();
+        final TreeNode child = left ? node.left : node.right;
+        if (child == null || child.left == null || engine.rng.nextInt(4) == 0) {
+          final long builtBytes = estimatedBytes;
+          final TreeNode subtree = build(engine, 1 + engine.rng.nextInt(8));
+          if (left) {
+            node.left = subtree;
+          } else {
+            node.right = subtree;
+          }
+          final long subtreeBytes = estimatedBytes - builtBytes;
+          estimatedBytes = builtBytes;
+          return subtreeBytes;
+        }
+        node = child;
+      }
+    }
+  }
+
+  private static final class TreeNode {
+    private final byte[] payload;
+    private TreeNode left;
+    private TreeNode right;
+
+    TreeNode(final byte[] payload) {
+      this.payload = payload;
+    }
+  }
+
+  /** A singly linked chain of links that each carry a payload */
+  private static final class Chain extends Structure {
+    private final ChainLink head;
+
+    Chain(final ObjectGraphWorkEngine engine) {
+      ChainLink link = null;
+      for (int i = 0; i < engine.objectsPerStructure; i++) {
+        link = new ChainLink(engine.newPayload(), link);
+        estimatedBytes += OBJECT_BYTES + REFERENCE_BYTES + payloadBytes(link.payload);
+      }
+      head = link;
+    }
+
+    /** Replace a random link after the head with a new one */
+    @Override
+    long mutate(final ObjectGraphWorkEngine engine) {
+      ChainLink link = head;
+      for (int i = engine.rng.nextInt(engine.objectsPerStructure); i > 0; i--) {
+        if (link.next == null || link.next.next == null) {
+          break;
+        }
+        link = link.next;
+      }
+      if (link.next == null) {
+        return 0;
+      }
+      link.next = new ChainLink(engine.newPayload(), link.next.next);
+      return OBJECT_BYTES + REFERENCE_BYTES + payloadBytes(link.next.payload);
+    }
+  }
+
+  private static final class ChainLink {
+    private final byte[] payload;
+    private ChainLink next;
+
+    ChainLink(final byte[] payload, final ChainLink next) {
+      this.payload = payload;
+      this.next = next;
+    }
+  }
+
+  /** A hash map from random string keys to payloads */
+  private static final class StringKeyedMap extends Structure {
+    private static final char[] KEY_CHARACTERS =
+        "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+    private final String[] keys;
+    private final Map<String, byte[]> map;
+
+    StringKeyedMap(final ObjectGraphWorkEngine engine) {
+      keys = new String[engine.objectsPerStructure];
+      map = Maps.newHashMapWithExpectedSize(keys.length);
+      for (int i = 0; i < keys.length; i++) {
+        final char[] key = new char[8 + engine.rng.nextInt(25)];
+        for (int j = 0; j < key.length; j++) {
+          key[j] = KEY_CHARACTERS[engine.rng.nextInt(KEY_CHARACTERS.length)];
+        }
+        keys[i] = new String(key);
+        final byte[] payload = engine.newPayload();
+        map.put(keys[i], payload);
+        // The key, its characters, the map entry and the payload
+        estimatedBytes += 2 * OBJECT_BYTES + 2 * key.length + 2 * OBJECT_BYTES
+            + 4 * REFERENCE_BYTES + payloadBytes(payload);
+      }
+    }
+
+    /** Replace the payload of a random key */
+    @Override
+    long mutate(final ObjectGraphWorkEngine engine) {
+      final byte[] payload = engine.newPayload();
+      map.put(keys[engine.rng.nextInt(keys.length)], payload);
+      return payloadBytes(payload);
+    }
+  }
+
+  /** A group of byte, int, long and reference arrays of mixed sizes */
+  private static final class MixedArrays extends Structure {
+    private final Object[] arrays;
+
+    MixedArrays(final ObjectGraphWorkEngine engine) {
+      arrays = new Object[engine.objectsPerStructure];
+      estimatedBytes += OBJECT_BYTES + (long) arrays.length * REFERENCE_BYTES;
+      for (int i = 0; i < arrays.length; i++) {
+        estimatedBytes += replace(engine, i);
+      }
+    }
+
+    /** Replace a random array with a new one */
+    @Override
+    long mutate(final ObjectGraphWorkEngine engine) {
+      return replace(engine, engine.rng.nextInt(arrays.length));
+    }
+
+    private long replace(final ObjectGraphWorkEngine engine, final int index) {
+      final int size = engine.nextObjectSize();
+      switch (engine.rng.nextInt(4)) {
+        case 0:
+          arrays[index] = new byte[size];
+          return OBJECT_BYTES + size;
+        case 1:
+          arrays[index] = new int[size / 4];
+          return OBJECT_BYTES + size / 4 * 4;
+        case 2:
+          arrays[index] = new long[size / 8];
+          return OBJECT_BYTES + size / 8 * 8;
+        default:
+          arrays[index] = new Object[size / REFERENCE_BYTES];
+          return OBJECT_BYTES + size / REFERENCE_BYTES * REFERENCE_BYTES;
+      }
+    }
+  }
+
+  /**
+   * The structures of a work item that survive into a cache, seen as the list of their estimated
+   * sizes in bytes.
+   */
+  private static final class SurvivingGraph extends AbstractList<Integer> implements RandomAccess {
+    private final Structure[] survivors;
+
+    SurvivingGraph(final List<Structure> survivors) {
+      this.survivors = survivors.toArray(new Structure[survivors.size()]);
+    }
+
+    @Override
+    public Integer get(final int index) {
+      return Ints.saturatedCast(survivors[index].estimatedBytes);
+    }
+
+    @Override
+    public int size() {
+      return survivors.length;
+    }
+  }
+}
@@ -0,0 +1,227 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * Implements a thread-safe cache of fixed capacity that keeps work lists outside of the Java heap.
+ *
+ * Each cached list is copied into a chunk of direct memory, so the heap holds only a small
+ * descriptor per slot; {@link #get(int)} copies the list back onto the heap.  Chunks come from a
+ * slab allocator: chunk sizes are rounded up to a power of two, new chunks are carved one after
+ * another from large direct slabs, and a chunk that is overwritten goes back onto the free list of
+ * its size class for reuse.  Slabs are never returned, so once warmed up the cache stops allocating
+ * direct memory.
+ *
+ * Updates fill the cache from the front until it is full and overwrite the given index afterwards,
+ * as {@link HardReferenceInMemoryCache} does.
+ */
+class OffHeapIntListCache implements Cache<List<Integer>> {
+  /** The smallest chunk handed out, as a power of two */
+  private static final int MINIMUM_CHUNK_SHIFT = 12;
+
+  /** The size of the slabs that chunks are carved from, unless a single chunk is larger */
+  private static final int SLAB_SIZE = 16 * 1024 * 1024;
+
+  private final int cacheSize;
+  private final Chunk[] slots;
+  private final Object[] slotLocks;
+  private final AtomicInteger filled = new AtomicInteger();
+  private final SlabAllocator allocator = new SlabAllocator();
+
+  private final AtomicLong storedBytes = new AtomicLong();
+  private final AtomicLong allocatedBytes = new AtomicLong();
+
+  public OffHeapIntListCache(final int cacheSize) throws IllegalArgumentException {
+    Preconditions.checkArgument(cacheSize > 0, "cacheSize must be positive.");
+
+    this.cacheSize = cacheSize;
+    this.slots = new Chunk[cacheSize];
+    this.slotLocks = new Object[cacheSize];
+    for (int i = 0; i < cacheSize; i++) {
+      slotLocks[i] = new Object();
+    }
+  }
+
+  @Override
+  public int getCacheSize() {
+    return cacheSize;
+  }
+
+  @Override
+  public void update(final int index, final List<Integer> data) throws IndexOutOfBoundsException {
+    Preconditions.checkElementIndex(index, cacheSize);
+    Preconditions.checkNotNull(data, "data may not be null.");
+
+    final int size = data.size();
+    final Chunk chunk = allocator.allocate(size * 4);
+    chunk.ints.clear();
+    for (final Integer value : data) {
+      chunk.ints.put(value);
+    }
+    chunk.size = size;
+
+    int slot = index;
+    int position = filled.get();
+    while (position < cacheSize) {
+      if (filled.compareAndSet(position, position + 1)) {
+        slot = position;
+        break;
+      }
+      position = filled.get();
+    }
+
+    final Chunk previous;
+    synchronized (slotLocks[slot]) {
+      previous = slots[slot];
+      slots[slot] = chunk;
+    }
+
+    storedBytes.addAndGet(chunk.getStoredBytes());
+    allocatedBytes.addAndGet(chunk.getCapacity());
+    if (previous != null) {
+      storedBytes.addAndGet(-previous.getStoredBytes());
+      allocatedBytes.addAndGet(-previous.getCapacity());
+      allocator.free(previous);
+    }
+  }
+
+  @Override
+  @Nullable
+  public List<Integer> get(final int index) {
+    Preconditions.checkElementIndex(index, cacheSize);
+
+    synchronized (slotLocks[index]) {
+      final Chunk chunk = slots[index];
+      if (chunk == null) {
+        return null;
+      }
+      final int[] values = new int[chunk.size];
+      chunk.ints.clear();
+      chunk.ints.get(values);
+      return Ints.asList(values);
+    }
+  }
+
+  /** Returns the number of bytes of chunk space in the slot that its list does not use */
+  public int getSlotFreeBytes(final int index) {
+    Preconditions.checkElementIndex(index, cacheSize);
+
+    synchronized (slotLocks[index]) {
+      final Chunk chunk = slots[index];
+      return chunk == null ? 0 : chunk.getCapacity() - chunk.getStoredBytes();
+    }
+  }
+
+  /** Returns the number of bytes of direct memory reserved for slabs */
+  public long getReservedBytes() {
+    return allocator.getReservedBytes();
+  }
+
+  /** Returns the number of bytes of chunk space held by cached lists */
+  public long getAllocatedBytes() {
+    return allocatedBytes.get();
+  }
+
+  /** Returns the number of bytes that the cached lists occupy */
+  public long getStoredBytes() {
+    return storedBytes.get();
+  }
+
+  /** Returns the number of bytes held by cached lists but not used by them, across all slots */
+  public long getSlotFreeBytes() {
+    return allocatedBytes.get() - storedBytes.get();
+  }
+
+  /** A region of direct memory that holds one cached list */
+  private static final class Chunk {
+    private final int sizeClass;
+    private final IntBuffer ints;
+    private int size;
+
+    Chunk(final int sizeClass, final ByteBuffer buffer) {
+      this.sizeClass = sizeClass;
+      this.ints = buffer.order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    int getCapacity() {
+      return 1 << sizeClass;
+    }
+
+    int getStoredBytes() {
+      return size * 4;
+    }
+  }
+
+  /** Hands out power-of-two sized chunks from slabs of direct memory */
+  private static final class SlabAllocator {
+    /** The chunks free for reuse, by size class */
+    private final List<ArrayDeque<Chunk>> freeChunks =
+        new ArrayList<ArrayDeque<Chunk>>(Integer.SIZE);
+    @Nullable private ByteBuffer currentSlab;
+    private long reservedBytes;
+
+    SlabAllocator() {
+      for (int i = 0; i < Integer.SIZE; i++) {
+        freeChunks.add(new ArrayDeque<Chunk>());
+      }
+    }
+
+    synchronized Chunk allocate(final int bytes) {
+      final int sizeClass = Math.max(MINIMUM_CHUNK_SHIFT,
+          Integer.SIZE - Integer.numberOfLeadingZeros(Math.max(bytes, 1) - 1));
+      Preconditions.checkArgument(sizeClass < Integer.SIZE - 1, "A list of %s bytes is too large.",
+          bytes);
+
+      final ArrayDeque<Chunk> free = freeChunks.get(sizeClass);
+      if (!free.isEmpty()) {
+        return free.pop();
+      }
+
+      final int chunkSize = 1 << sizeClass;
+      if (currentSlab == null || currentSlab.remaining() < chunkSize) {
+        currentSlab = ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, chunkSize));
+        reservedBytes += currentSlab.capacity();
+      }
+
+      final ByteBuffer region = currentSlab.slice();
+      region.limit(chunkSize);
+      currentSlab.position(currentSlab.position() + chunkSize);
+      return new Chunk(sizeClass, region);
+    }
+
+    synchronized void free(final Chunk chunk) {
+      freeChunks.get(chunk.sizeClass).push(chunk);
+    }
+
+    synchronized long getReservedBytes() {
+      return reservedBytes;
+    }
+  }
+}
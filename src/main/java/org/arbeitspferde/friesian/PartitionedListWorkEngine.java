@@ -0,0 +1,245 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The common base of work engines that partition a list of integers and sort each partition.
+ *
+ * Subclasses decide how the list is represented; this class owns the partitioning and the caching
+ * of the finished list.
+ *
+ * When the maximum partition parallelism is greater than one, all partitions are handed to a
+ * {@link ForkJoinPool} in a single unit of work and sorted concurrently by at most that many tasks,
+ * mimicking a request handler that fans out internally.  The work list is cached only after every
+ * partition has been joined.  Since all partitions are sorted in one unit of work, the worker makes
+ * one sleep decision per work item rather than one per partition, so in this mode the sleep
+ * probability is the chance that a work item sleeps once, not that each partition is followed by a
+ * sleep.
+ */
+abstract class PartitionedListWorkEngine extends WorkEngine {
+  private static final Logger log =
+      Logger.getLogger(PartitionedListWorkEngine.class.getCanonicalName());
+
+  private final Random rng;
+  private final Cache<List<Integer>> hotCache;
+  private final Cache<List<Integer>> coldCache;
+  private final int listSize;
+  private final int numberOfPartitions;
+  private final int maxNumberOfListPartitions;
+  private final int hotProbability;
+  private final int coldProbability;
+  private final int maxPartitionParallelism;
+  private final ForkJoinPool partitionSortPool;
+
+  private boolean notFinished = true;
+  private int partitionMax = 0;
+  private int partitionMin = 0;
+  private int partitionCount = 0;
+
+  PartitionedListWorkEngine(Random rng, int sleepProbability, int workerSleepTime,
+      Cache<List<Integer>> hotCache, Cache<List<Integer>> coldCache, int minListSize,
+      int maxListSize, int minNumberOfListPartitions, int maxNumberOfListPartitions,
+      int hotProbability, int coldProbability, int maxPartitionParallelism,
+      ForkJoinPool partitionSortPool, AtomicLong jtaWorkerWorkTime,
+      AtomicLong jtaWorkerSleepTime, WorkLatencies workLatencies,
+      SlotDistributions slotDistributions) {
+
+    super(rng, sleepProbability, workerSleepTime, jtaWorkerWorkTime, jtaWorkerSleepTime,
+        workLatencies, slotDistributions);
+
+    this.rng = rng;
+    this.hotCache = hotCache;
+    this.coldCache = coldCache;
+    this.listSize = RandomNumber.generate(minListSize, maxListSize, this.rng);
+    this.numberOfPartitions = RandomNumber.generate(minNumberOfListPartitions,
+        maxNumberOfListPartitions, this.rng);
+    this.hotProbability = hotProbability;
+    this.coldProbability = coldProbability;
+    this.maxNumberOfListPartitions = maxNumberOfListPartitions;
+    this.maxPartitionParallelism = maxPartitionParallelism;
+    this.partitionSortPool = partitionSortPool;
+  }
+
+  @Override
+  /** Returns the number of elements in the work list */
+  int getListSize() {
+    return listSize;
+  }
+
+  @Override
+  /** Returns the number of partitions the work list is divided into */
+  int getNumberOfPartitions() {
+    return numberOfPartitions;
+  }
+
+  /** Sort the elements from min to max inclusive into ascending order */
+  abstract void sortPartition(int min, int max);
+
+  /** Returns the finished work list in the form that is stored in the caches */
+  abstract List<Integer> getCacheableWorkList();
+
+  @Override
+  /** Returns true when work is not finished */
+  public boolean workNotFinished() {
+    return notFinished;
+  }
+
+  @Override
+  /** Sort a partition of the work list, or all of them at once when sorting in parallel */
+  public void doWork() {
+    if (this.maxPartitionParallelism > 1) {
+      sortPartitionsInParallel();
+    } else if (createPartition()) {
+      timeSortPartition(this.partitionMin, this.partitionMax);
+    }
+  }
+
+  @Override
+  /** Possibly cache the work list into the hot or cold caches */
+  public void cache() {
+    Cache<List<Integer>> cache = null;
+    int randomNumber = RandomNumber.generatePercentage(this.rng);
+
+    if (randomNumber < this.hotProbability) {
+      cache = this.hotCache;
+    } else if (randomNumber < this.coldProbability + this.hotProbability) {
+      cache = this.coldCache;
+    }
+    if (cache != null) {
+      List<Integer> retrieved;
+      try {
+        final int index = chooseSlot(cache);
+        final String cacheName = cache == this.hotCache ? HOT_CACHE : COLD_CACHE;
+        retrieved = getCached(cacheName, cache, index);
+        updateCached(cacheName, cache, index, getCacheableWorkList());
+      } catch (IllegalArgumentException e) {
+        log.log(Level.WARNING, "Problems updating the cache", e);
+      } finally {
+        retrieved = null;
+      }
+    }
+  }
+
+  /** Create the next partition of the work list and return false if not created, otherwise true */
+  private boolean createPartition() {
+    this.partitionMin = this.partitionMax + 1;
+    if (this.partitionMin >= this.listSize) {
+      this.workFinished();
+      return false;
+    }
+
+    this.partitionMax += this.listSize / this.numberOfPartitions;
+    this.partitionCount += 1;
+
+    if ((this.partitionMax >= this.listSize) ||
+        (this.partitionCount > this.maxNumberOfListPartitions)) {
+      this.partitionMax = this.listSize - 1;
+    }
+
+    if (this.partitionMin >= this.partitionMax) {
+      this.workFinished();
+      return false;
+    }
+
+    return true;
+  }
+
+  /** Sort a partition and record how long it took */
+  private void timeSortPartition(int min, int max) {
+    final Object event = FlightRecorderEvents.beginPartitionSort();
+    final long startNanos = System.nanoTime();
+    sortPartition(min, max);
+    recordPartitionSortTime(System.nanoTime() - startNanos);
+    FlightRecorderEvents.endPartitionSort(event, min, max);
+  }
+
+  /** Create all remaining partitions and sort them concurrently, returning once all are sorted */
+  private void sortPartitionsInParallel() {
+    final int[] partitionMins = new int[this.maxNumberOfListPartitions + 1];
+    final int[] partitionMaxes = new int[this.maxNumberOfListPartitions + 1];
+    int numberOfCreatedPartitions = 0;
+
+    while (createPartition()) {
+      partitionMins[numberOfCreatedPartitions] = this.partitionMin;
+      partitionMaxes[numberOfCreatedPartitions] = this.partitionMax;
+      numberOfCreatedPartitions++;
+    }
+
+    if (numberOfCreatedPartitions > 0) {
+      final int numberOfChunks = Math.min(this.maxPartitionParallelism, numberOfCreatedPartitions);
+      this.partitionSortPool.invoke(new PartitionSortTask(partitionMins, partitionMaxes,
+          numberOfCreatedPartitions, numberOfChunks, 0, numberOfChunks));
+    }
+  }
+
+  /**
+   * Sorts the partitions belonging to a range of chunks.  The partitions are divided into a fixed
+   * number of chunks, and each chunk is sorted sequentially by one leaf task, so that no more than
+   * that many partitions of a work item are sorted at the same time.
+   */
+  private final class PartitionSortTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int[] partitionMins;
+    private final int[] partitionMaxes;
+    private final int numberOfPartitions;
+    private final int numberOfChunks;
+    private final int firstChunk;
+    private final int lastChunk;
+
+    PartitionSortTask(int[] partitionMins, int[] partitionMaxes, int numberOfPartitions,
+        int numberOfChunks, int firstChunk, int lastChunk) {
+      this.partitionMins = partitionMins;
+      this.partitionMaxes = partitionMaxes;
+      this.numberOfPartitions = numberOfPartitions;
+      this.numberOfChunks = numberOfChunks;
+      this.firstChunk = firstChunk;
+      this.lastChunk = lastChunk;
+    }
+
+    @Override
+    protected void compute() {
+      if (lastChunk - firstChunk > 1) {
+        final int middleChunk = (firstChunk + lastChunk) >>> 1;
+        invokeAll(
+            new PartitionSortTask(partitionMins, partitionMaxes, numberOfPartitions,
+                numberOfChunks, firstChunk, middleChunk),
+            new PartitionSortTask(partitionMins, partitionMaxes, numberOfPartitions,
+                numberOfChunks, middleChunk, lastChunk));
+        return;
+      }
+
+      final int first = (int) ((long) firstChunk * numberOfPartitions / numberOfChunks);
+      final int last = (int) ((long) lastChunk * numberOfPartitions / numberOfChunks);
+      for (int i = first; i < last; i++) {
+        timeSortPartition(partitionMins[i], partitionMaxes[i]);
+      }
+    }
+  }
+
+  /** Signify that work is complete */
+  private void workFinished() {
+    notFinished = false;
+  }
+}
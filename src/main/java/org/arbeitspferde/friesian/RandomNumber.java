@@ -52,4 +52,18 @@ class RandomNumber {
 
     return result;
   }
+
+  /**
+   * Fills the array with random numbers from min to max inclusive, in a single call to the
+   * generator where it supports that
+   */
+  public static void fill(int[] values, int min, int max, Random rng) {
+    if (rng instanceof SplitMixRandom) {
+      ((SplitMixRandom) rng).nextInts(values, min, max);
+      return;
+    }
+    for (int i = 0; i < values.length; i++) {
+      values[i] = generate(min, max, rng);
+    }
+  }
 }
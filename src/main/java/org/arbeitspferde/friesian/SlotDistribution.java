@@ -0,0 +1,171 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Random;
+
+/**
+ * The distribution over the slots of one cache that work items choose the slot they read and
+ * write from.
+ *
+ * Everything a distribution needs is computed when it is made, so choosing a slot never
+ * allocates.  The Zipfian distributions are sampled by rejection-inversion (Hörmann and
+ * Derflinger, 1996), which needs a few constants rather than a table of cumulative probabilities
+ * that would take eight bytes per slot of long-lived heap, and so would itself skew the old
+ * generation under study.  Ranks are slots in order: the most likely slot is slot 0.
+ */
+abstract class SlotDistribution {
+  /** Returns the slot to access next, from 0 to the size of the cache exclusive */
+  abstract int next(Random rng);
+
+  /** Note that the slot has just been written */
+  void written(final int slot) {
+  }
+
+  /** Returns a distribution that chooses every slot equally often */
+  static SlotDistribution uniform(final int size) {
+    Preconditions.checkArgument(size > 0, "size must be positive.");
+    return new SlotDistribution() {
+      @Override
+      int next(final Random rng) {
+        return rng.nextInt(size);
+      }
+    };
+  }
+
+  /** Returns a distribution that chooses the slot of rank k in proportion to 1 / k^exponent */
+  static SlotDistribution zipfian(final int size, final double exponent) {
+    final Zipf zipf = new Zipf(size, exponent);
+    return new SlotDistribution() {
+      @Override
+      int next(final Random rng) {
+        return zipf.sample(rng) - 1;
+      }
+    };
+  }
+
+  /**
+   * Returns a distribution that sends the given percentage of accesses to the given percentage
+   * of the slots, and spreads each share evenly over its slots.
+   */
+  static SlotDistribution hotspot(final int size, final int keyPercentage,
+      final int trafficPercentage) {
+    Preconditions.checkArgument(size > 0, "size must be positive.");
+    Preconditions.checkArgument(keyPercentage >= 0 && keyPercentage <= 100,
+        "hotspotKeyPercentage must be between 0 and 100.");
+    Preconditions.checkArgument(trafficPercentage >= 0 && trafficPercentage <= 100,
+        "hotspotTrafficPercentage must be between 0 and 100.");
+    final int hotSlots = Math.min(size, Math.max(1, (int) ((long) size * keyPercentage / 100)));
+    if (hotSlots == size) {
+      return uniform(size);
+    }
+    return new SlotDistribution() {
+      @Override
+      int next(final Random rng) {
+        if (rng.nextInt(100) < trafficPercentage) {
+          return rng.nextInt(hotSlots);
+        }
+        return hotSlots + rng.nextInt(size - hotSlots);
+      }
+    };
+  }
+
+  /**
+   * Returns a distribution that chooses the slot written k - 1 writes ago, were writes to go to
+   * consecutive slots, in proportion to 1 / k^exponent.  Writes race to update the latest slot,
+   * which only blurs the recency a little.
+   */
+  static SlotDistribution latest(final int size, final double exponent) {
+    final Zipf zipf = new Zipf(size, exponent);
+    return new SlotDistribution() {
+      private volatile int latest = 0;
+
+      @Override
+      int next(final Random rng) {
+        final int slot = latest - (zipf.sample(rng) - 1);
+        return slot < 0 ? slot + size : slot;
+      }
+
+      @Override
+      void written(final int slot) {
+        latest = slot;
+      }
+    };
+  }
+
+  /** Samples ranks from 1 to n with probabilities proportional to 1 / k^exponent */
+  private static final class Zipf {
+    private final int n;
+    private final double exponent;
+    private final double hIntegralX1;
+    private final double hIntegralN;
+    private final double s;
+
+    Zipf(final int n, final double exponent) {
+      Preconditions.checkArgument(n > 0, "size must be positive.");
+      Preconditions.checkArgument(exponent > 0.0, "zipfianExponent must be positive.");
+      this.n = n;
+      this.exponent = exponent;
+      this.hIntegralX1 = hIntegral(1.5) - 1.0;
+      this.hIntegralN = hIntegral(n + 0.5);
+      this.s = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+    }
+
+    int sample(final Random rng) {
+      while (true) {
+        final double u = hIntegralN + rng.nextDouble() * (hIntegralX1 - hIntegralN);
+        final double x = hIntegralInverse(u);
+        final int k = (int) Math.max(1L, Math.min(n, (long) (x + 0.5)));
+        if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+          return k;
+        }
+      }
+    }
+
+    /** The integral of {@link #h(double)}, up to a constant */
+    private double hIntegral(final double x) {
+      final double logX = Math.log(x);
+      return helper2((1.0 - exponent) * logX) * logX;
+    }
+
+    private double h(final double x) {
+      return Math.exp(-exponent * Math.log(x));
+    }
+
+    private double hIntegralInverse(final double x) {
+      final double t = Math.max(-1.0, x * (1.0 - exponent));
+      return Math.exp(helper1(t) * x);
+    }
+
+    /** log(1 + x) / x, accurate near 0 */
+    private static double helper1(final double x) {
+      if (Math.abs(x) > 1e-8) {
+        return Math.log1p(x) / x;
+      }
+      return 1.0 - x * (0.5 - x * (1.0 / 3.0 - x * 0.25));
+    }
+
+    /** (exp(x) - 1) / x, accurate near 0 */
+    private static double helper2(final double x) {
+      if (Math.abs(x) > 1e-8) {
+        return Math.expm1(x) / x;
+      }
+      return 1.0 + x * 0.5 * (1.0 + x / 3.0 * (1.0 + x * 0.25));
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.collect.MapMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.arbeitspferde.friesian.utility.Settings;
+import org.arbeitspferde.friesian.utility.SlotDistributionType;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link SlotDistribution} of each cache, made the first time a work item accesses the cache
+ * and shared by all work items after it, so that skew and the latest written slot carry from one
+ * work item to the next.
+ */
+@Singleton
+class SlotDistributions {
+  private final SlotDistributionType type;
+  private final double zipfianExponent;
+  private final int hotspotKeyPercentage;
+  private final int hotspotTrafficPercentage;
+
+  /** Caches are compared by identity, and are not kept alive by their distributions */
+  private final ConcurrentMap<Cache<?>, SlotDistribution> distributions =
+      new MapMaker().weakKeys().makeMap();
+
+  @Inject
+  SlotDistributions(final Settings settings) {
+    this(settings.getSlotDistribution(), settings.getZipfianExponent(),
+        settings.getHotspotKeyPercentage(), settings.getHotspotTrafficPercentage());
+  }
+
+  SlotDistributions(final SlotDistributionType type, final double zipfianExponent,
+      final int hotspotKeyPercentage, final int hotspotTrafficPercentage) {
+    this.type = type;
+    this.zipfianExponent = zipfianExponent;
+    this.hotspotKeyPercentage = hotspotKeyPercentage;
+    this.hotspotTrafficPercentage = hotspotTrafficPercentage;
+    create(1);  // Reject bad settings at startup, not at every cache access.
+  }
+
+  /** Returns the distribution of the cache's slots */
+  SlotDistribution get(final Cache<?> cache) {
+    final SlotDistribution distribution = distributions.get(cache);
+    if (distribution != null) {
+      return distribution;
+    }
+    final SlotDistribution created = create(cache.getCacheSize());
+    final SlotDistribution raced = distributions.putIfAbsent(cache, created);
+    return raced != null ? raced : created;
+  }
+
+  private SlotDistribution create(final int size) {
+    switch (type) {
+      case ZIPFIAN:
+        return SlotDistribution.zipfian(size, zipfianExponent);
+      case HOTSPOT:
+        return SlotDistribution.hotspot(size, hotspotKeyPercentage, hotspotTrafficPercentage);
+      case LATEST:
+        return SlotDistribution.latest(size, zipfianExponent);
+      case UNIFORM:
+      default:
+        return SlotDistribution.uniform(size);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Random;
+
+/**
+ * A splittable random number generator that uses the SplitMix64 algorithm of Steele, Lea and Flood.
+ *
+ * Unlike {@link Random} and its other subclasses, it is not thread-safe and never synchronizes:
+ * each instance is meant to be owned by a single work item, which obtains it from a parent with
+ * {@link #split()}.  Splitting is deterministic, so every generator split from a parent of a given
+ * seed yields the same sequence from one run to the next.  {@link #setSeed(long)} has no effect
+ * once the generator is constructed.
+ */
+class SplitMixRandom extends Random {
+  private static final long serialVersionUID = 1L;
+
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private long seed;
+  private final long gamma;
+
+  /** Create a generator whose sequence is determined by the given seed */
+  public SplitMixRandom(final long seed) {
+    this(seed, GOLDEN_GAMMA);
+  }
+
+  private SplitMixRandom(final long seed, final long gamma) {
+    super(0L);
+    this.seed = seed;
+    this.gamma = gamma;
+  }
+
+  /**
+   * Returns a new generator that shares no mutable state with this one, and whose sequence is
+   * statistically independent of it.  This generator advances.
+   */
+  public SplitMixRandom split() {
+    return new SplitMixRandom(nextLong(), mixGamma(nextSeed()));
+  }
+
+  /**
+   * Returns the generator that the given call to {@link #split()} would return from a new
+   * generator of the given seed, counting calls from 0, without making or advancing that
+   * generator.  Generators for many indices may so be made in any order and on any thread.
+   */
+  public static SplitMixRandom split(final long seed, final long index) {
+    final long splitSeed = seed + (2 * index + 1) * GOLDEN_GAMMA;
+    return new SplitMixRandom(mix64(splitSeed), mixGamma(splitSeed + GOLDEN_GAMMA));
+  }
+
+  @Override
+  protected int next(final int bits) {
+    return mix32(nextSeed()) >>> (32 - bits);
+  }
+
+  @Override
+  public int nextInt() {
+    return mix32(nextSeed());
+  }
+
+  @Override
+  public int nextInt(final int bound) {
+    Preconditions.checkArgument(bound > 0, "bound must be positive.");
+
+    int r = mix32(nextSeed());
+    final int m = bound - 1;
+    if ((bound & m) == 0) {
+      return r & m;
+    }
+    for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = mix32(nextSeed()) >>> 1) {
+      // Reject values from the incomplete last interval, so that all results are equally likely.
+    }
+    return r;
+  }
+
+  @Override
+  public long nextLong() {
+    return mix64(nextSeed());
+  }
+
+  /**
+   * Fill the array with numbers from min to max inclusive, as {@link RandomNumber#generate} draws
+   * them one at a time.
+   */
+  public void nextInts(final int[] values, final int min, final int max) {
+    Preconditions.checkArgument(min <= max, "Min must be less than or equal to max");
+
+    final long range = (long) max - min + 1;
+    if (range > Integer.MAX_VALUE) {
+      for (int i = 0; i < values.length; i++) {
+        int value;
+        do {
+          value = nextInt();
+        } while (value < min || value > max);
+        values[i] = value;
+      }
+      return;
+    }
+    for (int i = 0; i < values.length; i++) {
+      values[i] = min + nextInt((int) range);
+    }
+  }
+
+  private long nextSeed() {
+    return seed += gamma;
+  }
+
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  private static int mix32(long z) {
+    z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+    return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+  }
+
+  /** Returns an odd gamma with enough bit transitions to give a well mixed sequence */
+  private static long mixGamma(long z) {
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    z = (z ^ (z >>> 33)) | 1L;
+    final int transitions = Long.bitCount(z ^ (z >>> 1));
+    return (transitions < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+  }
+}
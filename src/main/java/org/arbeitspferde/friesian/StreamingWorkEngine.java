@@ -0,0 +1,115 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.primitives.Ints;
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+import com.google.inject.name.Named;
+
+import org.arbeitspferde.friesian.utility.Settings;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A work engine that streams its work list a partition at a time, as a server processes a request
+ * that arrives in chunks.
+ *
+ * No work list is materialized up front: the elements of each partition are generated when the
+ * partition is reached, sorted, merged into a summary and released, so that a work item holds no
+ * more than one partition of its list at a time per sorting thread.  The summary is the smallest
+ * elements seen so far, up to the configured number, and is what the caches receive in place of
+ * the whole list.
+ *
+ * Partitions may be sorted concurrently, so each one draws its elements from a generator of its
+ * own, split from a seed drawn from the work item's generator by the position of the partition.
+ * The elements are therefore the same for a given work item whether its partitions are sorted in
+ * parallel or not, and the partitions of one work item or of work items with nearby seeds do not
+ * draw overlapping sequences.
+ */
+class StreamingWorkEngine extends PartitionedListWorkEngine {
+  private final long partitionSeed;
+  private final int summarySize;
+
+  private int[] summary = new int[0];
+
+  @Inject
+  StreamingWorkEngine(Random rng, @Assisted("sleepProbability") int sleepProbability,
+      @Assisted("workerSleepTime") int workerSleepTime,
+      @Assisted("hotCache") Cache<List<Integer>> hotCache,
+      @Assisted("coldCache") Cache<List<Integer>> coldCache,
+      @Assisted("minListSize") int minListSize,
+      @Assisted("maxListSize") int maxListSize,
+      @Assisted("minNumberOfListPartitions") int minNumberOfListPartitions,
+      @Assisted("maxNumberOfListPartitions") int maxNumberOfListPartitions,
+      @Assisted("hotProbability") int hotProbability,
+      @Assisted("coldProbability") int coldProbability,
+      @Assisted("maxPartitionParallelism") int maxPartitionParallelism,
+      @Named("partitionSortPool") ForkJoinPool partitionSortPool,
+      @Named("jtaWorkerWorkTime") AtomicLong jtaWorkerWorkTime,
+      @Named("jtaWorkerSleepTime") AtomicLong jtaWorkerSleepTime,
+      WorkLatencies workLatencies, SlotDistributions slotDistributions,
+      Settings settings) {
+
+    super(rng, sleepProbability, workerSleepTime, hotCache, coldCache, minListSize, maxListSize,
+        minNumberOfListPartitions, maxNumberOfListPartitions, hotProbability, coldProbability,
+        maxPartitionParallelism, partitionSortPool, jtaWorkerWorkTime, jtaWorkerSleepTime,
+        workLatencies, slotDistributions);
+
+    this.partitionSeed = rng.nextLong();
+    this.summarySize = Math.max(0, settings.getStreamingSummarySize());
+  }
+
+  @Override
+  /** Nothing is generated until a partition is reached */
+  public void init() {
+  }
+
+  @Override
+  /** The summary is cached in place of the work list, which no longer exists */
+  synchronized List<Integer> getCacheableWorkList() {
+    return Ints.asList(summary);
+  }
+
+  @Override
+  /** Generate the elements of the partition, sort them and merge them into the summary */
+  void sortPartition(int partitionMin, int partitionMax) {
+    final int[] partition = new int[partitionMax - partitionMin + 1];
+    RandomNumber.fill(partition, 0, Integer.MAX_VALUE - 1,
+        SplitMixRandom.split(partitionSeed, partitionMin));
+    Arrays.sort(partition);
+    merge(partition);
+  }
+
+  /** Replace the summary with the smallest elements of it and the sorted partition together */
+  private synchronized void merge(final int[] partition) {
+    final int[] merged = new int[Math.min(summarySize, summary.length + partition.length)];
+    int s = 0;
+    int p = 0;
+    for (int i = 0; i < merged.length; i++) {
+      if (p >= partition.length || (s < summary.length && summary[s] <= partition[p])) {
+        merged[i] = summary[s++];
+      } else {
+        merged[i] = partition[p++];
+      }
+    }
+    summary = merged;
+  }
+}
@@ -0,0 +1,471 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+
+/**
+ * Implements a thread-safe bounded cache with W-TinyLFU admission, as production caches such as
+ * Caffeine do.
+ *
+ * Indices range over a fixed number of keys, of which at most the capacity are retained.  New
+ * entries enter a small LRU admission window; entries that fall out of the window become
+ * candidates for the main space, a segmented LRU of a probation and a protected segment.  Once the
+ * main space is full, a candidate is only admitted if a frequency sketch of recent accesses rates
+ * it above the entry that it would evict from probation; otherwise the candidate is rejected.  The
+ * result is that popular entries survive bursts of one-off writes, which gives the retention and
+ * churn pattern of a frequency-aware cache rather than that of an LRU.
+ *
+ * Reads never lock: they look the entry up in a concurrent map and record the access in one of
+ * several lossy ring buffers, which are drained into the sketch and the segments by whichever
+ * thread next holds the eviction lock.  Writes take that lock.  The sketch counts each access to a
+ * key once: a read counts a resident key and a write counts a key it inserts, but a write that
+ * replaces a resident value only refreshes its recency, since the work engines read every slot
+ * before they write it.
+ *
+ * @param <T> the type of elements contained in the cache
+ */
+class TinyLfuCache<T> implements Cache<T> {
+  /** The share of the capacity, in percent, that is given to the admission window */
+  private static final int WINDOW_PERCENTAGE = 1;
+
+  /** The share of the main space, in percent, that is given to the protected segment */
+  private static final int PROTECTED_PERCENTAGE = 80;
+
+  /** The number of reads each read buffer holds; a power of two */
+  private static final int READ_BUFFER_SIZE = 128;
+
+  /** The number of buffered reads at which a reader tries to drain its buffer */
+  private static final int READ_BUFFER_DRAIN_THRESHOLD = 32;
+
+  private static final int WINDOW = 0;
+  private static final int PROBATION = 1;
+  private static final int PROTECTED = 2;
+  private static final int EVICTED = -1;
+
+  private final int cacheSize;
+  private final int windowCapacity;
+  private final int mainCapacity;
+  private final int protectedCapacity;
+
+  private final ConcurrentMap<Integer, Node<T>> data;
+  private final List<ReadBuffer> readBuffers = Lists.newArrayList();
+  private final ReentrantLock evictionLock = new ReentrantLock();
+
+  /** Guarded by the eviction lock */
+  private final FrequencySketch sketch;
+  private final AccessOrderQueue<T> window = new AccessOrderQueue<T>();
+  private final AccessOrderQueue<T> probation = new AccessOrderQueue<T>();
+  private final AccessOrderQueue<T> protectedSegment = new AccessOrderQueue<T>();
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong admissionCount = new AtomicLong();
+  private final AtomicLong rejectionCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  /**
+   * @param cacheSize The number of keys that indices range over.
+   * @param capacity The largest number of entries that are retained.
+   */
+  public TinyLfuCache(final int cacheSize, final int capacity) throws IllegalArgumentException {
+    Preconditions.checkArgument(cacheSize > 0, "cacheSize must be positive.");
+    Preconditions.checkArgument(capacity > 1, "capacity must be at least 2.");
+
+    this.cacheSize = cacheSize;
+    this.windowCapacity = Math.max(1, capacity * WINDOW_PERCENTAGE / 100);
+    this.mainCapacity = capacity - windowCapacity;
+    this.protectedCapacity = mainCapacity * PROTECTED_PERCENTAGE / 100;
+    this.data = new ConcurrentHashMap<Integer, Node<T>>(Math.min(cacheSize, capacity));
+    this.sketch = new FrequencySketch(capacity);
+
+    final int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+    for (int i = 0; i < stripes; i++) {
+      readBuffers.add(new ReadBuffer());
+    }
+  }
+
+  @Override
+  public int getCacheSize() {
+    return cacheSize;
+  }
+
+  @Override
+  public void update(final int index, final T value) throws IndexOutOfBoundsException {
+    Preconditions.checkElementIndex(index, cacheSize);
+    Preconditions.checkNotNull(value, "value may not be null.");
+
+    evictionLock.lock();
+    try {
+      drainReadBuffers();
+
+      final Node<T> existing = data.get(index);
+      if (existing != null) {
+        existing.value = value;
+        reorder(existing);
+        return;
+      }
+
+      sketch.increment(index);
+      final Node<T> node = new Node<T>(index, value);
+      data.put(index, node);
+      node.queue = WINDOW;
+      window.addLast(node);
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  @Nullable
+  public T get(final int index) {
+    Preconditions.checkElementIndex(index, cacheSize);
+
+    final Node<T> node = data.get(index);
+    if (node == null) {
+      missCount.incrementAndGet();
+      return null;
+    }
+    hitCount.incrementAndGet();
+
+    final ReadBuffer buffer = readBuffers.get(
+        (int) Thread.currentThread().getId() & (readBuffers.size() - 1));
+    final int pending = buffer.offer(node);
+    if ((pending < 0 || pending >= READ_BUFFER_DRAIN_THRESHOLD) && evictionLock.tryLock()) {
+      try {
+        drainReadBuffers();
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+    return node.value;
+  }
+
+  /** Returns the number of entries currently retained */
+  public long getRetainedSize() {
+    return data.size();
+  }
+
+  /** Returns the ratio of reads that found an entry, or 1 if there were no reads */
+  public double getHitRate() {
+    final long hits = hitCount.get();
+    final long reads = hits + missCount.get();
+    return reads == 0 ? 1.0 : (double) hits / reads;
+  }
+
+  /** Returns the number of reads that found an entry */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** Returns the number of reads that found no entry */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** Returns the number of candidates that the sketch admitted in place of a main entry */
+  public long getAdmissionCount() {
+    return admissionCount.get();
+  }
+
+  /** Returns the number of candidates that the sketch rejected in favor of a main entry */
+  public long getRejectionCount() {
+    return rejectionCount.get();
+  }
+
+  /** Returns the number of entries that were evicted, whether admitted before or not */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /** Apply the reads buffered by all readers; requires the eviction lock */
+  private void drainReadBuffers() {
+    for (final ReadBuffer buffer : readBuffers) {
+      buffer.drain();
+    }
+  }
+
+  /** Record a read of the node in the sketch and the segments; requires the eviction lock */
+  private void onAccess(final Node<T> node) {
+    if (node.queue != EVICTED) {
+      sketch.increment(node.key);
+      reorder(node);
+    }
+  }
+
+  /**
+   * Move the node to the most recently used end of its segment, promoting it out of probation;
+   * requires the eviction lock
+   */
+  private void reorder(final Node<T> node) {
+    switch (node.queue) {
+      case WINDOW:
+        window.moveToLast(node);
+        break;
+      case PROBATION:
+        probation.remove(node);
+        node.queue = PROTECTED;
+        protectedSegment.addLast(node);
+        if (protectedSegment.size() > protectedCapacity) {
+          final Node<T> demoted = protectedSegment.removeFirst();
+          demoted.queue = PROBATION;
+          probation.addLast(demoted);
+        }
+        break;
+      case PROTECTED:
+        protectedSegment.moveToLast(node);
+        break;
+      default:
+        // The node was evicted after the read was buffered.
+        break;
+    }
+  }
+
+  /** Move entries that overflow the window into the main space, subject to admission */
+  private void evict() {
+    while (window.size() > windowCapacity) {
+      final Node<T> candidate = window.removeFirst();
+      if (probation.size() + protectedSegment.size() < mainCapacity) {
+        candidate.queue = PROBATION;
+        probation.addLast(candidate);
+        continue;
+      }
+
+      final Node<T> victim = probation.size() > 0 ? probation.peekFirst()
+          : protectedSegment.peekFirst();
+      if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+        admissionCount.incrementAndGet();
+        (victim.queue == PROBATION ? probation : protectedSegment).remove(victim);
+        remove(victim);
+        candidate.queue = PROBATION;
+        probation.addLast(candidate);
+      } else {
+        rejectionCount.incrementAndGet();
+        remove(candidate);
+      }
+    }
+  }
+
+  private void remove(final Node<T> node) {
+    node.queue = EVICTED;
+    data.remove(node.key, node);
+    evictionCount.incrementAndGet();
+  }
+
+  /** An entry, linked into the queue of its segment */
+  private static final class Node<T> {
+    private final int key;
+    private volatile T value;
+    /** Guarded by the eviction lock, as are the links */
+    private int queue;
+    @Nullable private Node<T> previous;
+    @Nullable private Node<T> next;
+
+    Node(final int key, final T value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  /** A doubly linked list of nodes from least to most recently accessed */
+  private static final class AccessOrderQueue<T> {
+    @Nullable private Node<T> first;
+    @Nullable private Node<T> last;
+    private int size;
+
+    int size() {
+      return size;
+    }
+
+    Node<T> peekFirst() {
+      return first;
+    }
+
+    void addLast(final Node<T> node) {
+      node.previous = last;
+      node.next = null;
+      if (last == null) {
+        first = node;
+      } else {
+        last.next = node;
+      }
+      last = node;
+      size++;
+    }
+
+    Node<T> removeFirst() {
+      final Node<T> node = first;
+      remove(node);
+      return node;
+    }
+
+    void remove(final Node<T> node) {
+      if (node.previous == null) {
+        first = node.next;
+      } else {
+        node.previous.next = node.next;
+      }
+      if (node.next == null) {
+        last = node.previous;
+      } else {
+        node.next.previous = node.previous;
+      }
+      node.previous = null;
+      node.next = null;
+      size--;
+    }
+
+    void moveToLast(final Node<T> node) {
+      if (node != last) {
+        remove(node);
+        addLast(node);
+      }
+    }
+  }
+
+  /**
+   * A lossy ring buffer of reads.  Readers claim a slot with a compare-and-set and give up when
+   * they lose the race or the buffer is full, since a dropped read only makes the sketch slightly
+   * less precise.  It is drained by the holder of the eviction lock.
+   */
+  private final class ReadBuffer {
+    private final AtomicReferenceArray<Node<T>> slots =
+        new AtomicReferenceArray<Node<T>>(READ_BUFFER_SIZE);
+    private final AtomicLong writeCount = new AtomicLong();
+    /** Only advanced by the holder of the eviction lock */
+    private volatile long readCount;
+
+    /** Returns the number of pending reads including this one, 0 if dropped, or -1 if full */
+    int offer(final Node<T> node) {
+      final long tail = writeCount.get();
+      final long pending = tail - readCount;
+      if (pending >= READ_BUFFER_SIZE) {
+        return -1;
+      }
+      if (!writeCount.compareAndSet(tail, tail + 1)) {
+        return 0;
+      }
+      slots.lazySet((int) tail & (READ_BUFFER_SIZE - 1), node);
+      return (int) pending + 1;
+    }
+
+    void drain() {
+      long head = readCount;
+      final long tail = writeCount.get();
+      for (; head < tail; head++) {
+        final int index = (int) head & (READ_BUFFER_SIZE - 1);
+        final Node<T> node = slots.get(index);
+        if (node == null) {
+          // The reader that claimed the slot has not filled it yet.
+          break;
+        }
+        slots.lazySet(index, null);
+        onAccess(node);
+      }
+      readCount = head;
+    }
+  }
+
+  /**
+   * A count-min sketch of 4-bit counters that estimates how often each key was accessed recently.
+   * All counters are halved once the number of increments reaches ten times the capacity, so that
+   * old popularity fades.
+   */
+  private static final class FrequencySketch {
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    FrequencySketch(final int capacity) {
+      final int tableSize = Math.max(8, Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1));
+      table = new long[tableSize];
+      tableMask = tableSize - 1;
+      sampleSize = 10 * capacity;
+    }
+
+    int frequency(final int key) {
+      final int hash = spread(key);
+      final int start = (hash & 3) << 2;
+      int frequency = Integer.MAX_VALUE;
+      for (int i = 0; i < 4; i++) {
+        final int index = indexOf(hash, i);
+        final int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+        frequency = Math.min(frequency, count);
+      }
+      return frequency;
+    }
+
+    void increment(final int key) {
+      final int hash = spread(key);
+      final int start = (hash & 3) << 2;
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+        added |= incrementAt(indexOf(hash, i), start + i);
+      }
+      if (added && ++size >= sampleSize) {
+        reset();
+      }
+    }
+
+    private boolean incrementAt(final int index, final int counter) {
+      final int offset = counter << 2;
+      final long mask = 0xfL << offset;
+      if ((table[index] & mask) != mask) {
+        table[index] += 1L << offset;
+        return true;
+      }
+      return false;
+    }
+
+    private void reset() {
+      int odd = 0;
+      for (int i = 0; i < table.length; i++) {
+        odd += Long.bitCount(table[i] & ONE_MASK);
+        table[i] = (table[i] >>> 1) & RESET_MASK;
+      }
+      size = (size - (odd >>> 2)) >>> 1;
+    }
+
+    private int indexOf(final int hash, final int i) {
+      long h = (hash + SEEDS[i]) * SEEDS[i];
+      h += h >>> 32;
+      return (int) h & tableMask;
+    }
+
+    private static int spread(final int key) {
+      int x = ((key >>> 16) ^ key) * 0x45d9f3b;
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      return (x >>> 16) ^ x;
+    }
+  }
+}
@@ -17,6 +17,7 @@ package org.arbeitspferde.friesian;
 
 import com.google.common.base.Stopwatch;
 
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.TimeUnit;
@@ -30,27 +31,59 @@ import java.util.logging.Logger;
  * except possibly the last one. The number of partitions is chosen randomly. A worker may randomly
  * sleep between partition sorts (mimicking blocking on I/O). One of two caches is potentially
  * updated when the workers are done sorting partitions of the list.
+ *
+ * The time a work item waits to be started after its intended arrival, its whole latency and the
+ * time spent caching it are recorded in the {@link WorkLatencies}.  Measuring from the intended
+ * arrival rather than the actual dispatch keeps a stalled master from hiding latency.
+ *
+ * The bytes that each work item allocates are recorded there as well.  They are read from the
+ * allocation counter of the worker's thread, so they leave out what the partition sort pool
+ * allocates for the work item, and they are not recorded at all for work items on virtual threads,
+ * which have no such counter.
  */
 abstract class WorkEngine implements Runnable {
   private static final Logger log = Logger.getLogger(WorkEngine.class.getCanonicalName());
 
+  /** The names that flight recorder events give the caches */
+  static final String HOT_CACHE = "hot";
+  static final String COLD_CACHE = "cold";
+
   private final Random rng;
   private final int sleepProbability;
   private final int workerSleepTime;
   private final AtomicLong jtaWorkerWorkTime;
   private final AtomicLong jtaWorkerSleepTime;
+  private final WorkLatencies workLatencies;
+  private final SlotDistributions slotDistributions;
+
+  private long submissionNanos;
 
   WorkEngine(Random rng, int sleepProbability, int workerSleepTime,
-      AtomicLong jtaWorkerWorkTime, AtomicLong jtaWorkerSleepTime) {
+      AtomicLong jtaWorkerWorkTime, AtomicLong jtaWorkerSleepTime, WorkLatencies workLatencies,
+      SlotDistributions slotDistributions) {
     this.rng = rng;
     this.sleepProbability = sleepProbability;
     this.workerSleepTime = workerSleepTime;
     this.jtaWorkerWorkTime = jtaWorkerWorkTime;
     this.jtaWorkerSleepTime = jtaWorkerSleepTime;
+    this.workLatencies = workLatencies;
+    this.slotDistributions = slotDistributions;
+    this.submissionNanos = System.nanoTime();
+  }
+
+  /**
+   * Note when the work item was intended to arrive, as a {@link System#nanoTime()}.  Until this is
+   * called, the work item counts as having arrived when it was created.
+   */
+  void markSubmitted(long intendedNanos) {
+    submissionNanos = intendedNanos;
   }
 
   public void run() {
-    long startMillis;
+    final Object workItemEvent = FlightRecorderEvents.beginWorkItem();
+    final long startAllocatedBytes = AllocationMeter.getCurrentThreadAllocatedBytes();
+    final long queueingNanos = System.nanoTime() - submissionNanos;
+    workLatencies.getQueueing().record(queueingNanos);
     init();
     while (workNotFinished()) {
       // TODO(mtp): This introduces non-determinism for testing; fix.
@@ -59,15 +92,66 @@ abstract class WorkEngine implements Runnable {
       timer.stop();
       jtaWorkerWorkTime.addAndGet(timer.elapsed(TimeUnit.MILLISECONDS));
       if (sleepProbability >= RandomNumber.generatePercentage(rng)) {
+        final Object sleepEvent = FlightRecorderEvents.beginWorkerSleep();
         try {
           Thread.sleep(workerSleepTime);
           jtaWorkerSleepTime.addAndGet(workerSleepTime);
         } catch (InterruptedException e) {
           log.log(Level.WARNING, "Worker is unable to sleep", e);
         }
+        FlightRecorderEvents.endWorkerSleep(sleepEvent, workerSleepTime);
       }
     }
+    final long cacheStartNanos = System.nanoTime();
     cache();
+    final long cacheEndNanos = System.nanoTime();
+    workLatencies.getCache().record(cacheEndNanos - cacheStartNanos);
+    workLatencies.getWorkItem().record(cacheEndNanos - submissionNanos);
+    long allocatedBytes = -1;
+    if (startAllocatedBytes >= 0) {
+      allocatedBytes = AllocationMeter.getCurrentThreadAllocatedBytes() - startAllocatedBytes;
+      workLatencies.recordAllocation(allocatedBytes, getListSize());
+    }
+    FlightRecorderEvents.endWorkItem(workItemEvent, getListSize(), getNumberOfPartitions(),
+        queueingNanos, allocatedBytes);
+  }
+
+  /** Returns the number of elements in the work list, or 0 if the engine has none */
+  int getListSize() {
+    return 0;
+  }
+
+  /** Returns the number of partitions the work list is divided into, or 0 if it is not */
+  int getNumberOfPartitions() {
+    return 0;
+  }
+
+  /** Choose the slot of one of the caches to access, by the configured slot distribution */
+  int chooseSlot(final Cache<List<Integer>> cache) {
+    return slotDistributions.get(cache).next(rng);
+  }
+
+  /** Read a slot of one of the caches, which is named for flight recorder events */
+  List<Integer> getCached(final String cacheName, final Cache<List<Integer>> cache,
+      final int index) {
+    final Object event = FlightRecorderEvents.beginCacheGet();
+    final List<Integer> cached = cache.get(index);
+    FlightRecorderEvents.endCacheGet(event, cacheName, index, cached != null);
+    return cached;
+  }
+
+  /** Write a work list to a slot of one of the caches, which is named for flight recorder events */
+  void updateCached(final String cacheName, final Cache<List<Integer>> cache, final int index,
+      final List<Integer> data) {
+    final Object event = FlightRecorderEvents.beginCacheUpdate();
+    cache.update(index, data);
+    slotDistributions.get(cache).written(index);
+    FlightRecorderEvents.endCacheUpdate(event, cacheName, index, data.size());
+  }
+
+  /** Record how long sorting one partition took */
+  void recordPartitionSortTime(long nanos) {
+    workLatencies.getPartitionSort().record(nanos);
   }
 
   /** Initialize the work engine */
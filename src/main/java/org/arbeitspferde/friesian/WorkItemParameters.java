@@ -0,0 +1,100 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The bounds that a work item draws its list size, partition count, sleeps and cache choices
+ * within, as they are handed to a {@link ListWorkEngineFactory}.
+ *
+ * They are taken from the {@link LiveSettings} when work items are generated live, and from the
+ * trace when they are replayed, so that a replay runs the workload that was recorded whatever the
+ * settings of the replaying run say.
+ */
+final class WorkItemParameters {
+  /** The number of bytes {@link #write(ByteBuffer)} puts */
+  static final int BYTES = 9 * 4;
+
+  private final int sleepProbability;
+  private final int workerSleepTime;
+  private final int minListSize;
+  private final int maxListSize;
+  private final int minNumberOfListPartitions;
+  private final int maxNumberOfListPartitions;
+  private final int hotProbability;
+  private final int coldProbability;
+  private final int maxPartitionParallelism;
+
+  WorkItemParameters(int sleepProbability, int workerSleepTime, int minListSize,
+      int maxListSize, int minNumberOfListPartitions, int maxNumberOfListPartitions,
+      int hotProbability, int coldProbability, int maxPartitionParallelism) {
+    this.sleepProbability = sleepProbability;
+    this.workerSleepTime = workerSleepTime;
+    this.minListSize = minListSize;
+    this.maxListSize = maxListSize;
+    this.minNumberOfListPartitions = minNumberOfListPartitions;
+    this.maxNumberOfListPartitions = maxNumberOfListPartitions;
+    this.hotProbability = hotProbability;
+    this.coldProbability = coldProbability;
+    this.maxPartitionParallelism = maxPartitionParallelism;
+  }
+
+  /** Reads parameters that were put by {@link #write(ByteBuffer)} */
+  static WorkItemParameters read(final ByteBuffer buffer) {
+    return new WorkItemParameters(buffer.getInt(), buffer.getInt(), buffer.getInt(),
+        buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(),
+        buffer.getInt());
+  }
+
+  /** Puts the parameters into the buffer, which must have {@link #BYTES} remaining */
+  void write(final ByteBuffer buffer) {
+    buffer.putInt(sleepProbability)
+        .putInt(workerSleepTime)
+        .putInt(minListSize)
+        .putInt(maxListSize)
+        .putInt(minNumberOfListPartitions)
+        .putInt(maxNumberOfListPartitions)
+        .putInt(hotProbability)
+        .putInt(coldProbability)
+        .putInt(maxPartitionParallelism);
+  }
+
+  /**
+   * Returns these parameters with the probabilities of updating the hot and cold caches scaled by
+   * the given factor, as far as they can be without adding up to more than 100 percent.
+   */
+  WorkItemParameters scaleCacheProbabilities(final double factor) {
+    final int cacheProbability = hotProbability + coldProbability;
+    if (cacheProbability <= 0) {
+      return this;
+    }
+    final double scale = Math.min(factor, 100.0 / cacheProbability);
+    return new WorkItemParameters(sleepProbability, workerSleepTime, minListSize, maxListSize,
+        minNumberOfListPartitions, maxNumberOfListPartitions,
+        (int) Math.round(hotProbability * scale), (int) Math.round(coldProbability * scale),
+        maxPartitionParallelism);
+  }
+
+  /** Create a work item with these parameters */
+  WorkEngine create(final ListWorkEngineFactory listWorkEngineFactory,
+      final Cache<List<Integer>> hotCache, final Cache<List<Integer>> coldCache) {
+    return listWorkEngineFactory.create(sleepProbability, workerSleepTime, hotCache, coldCache,
+        minListSize, maxListSize, minNumberOfListPartitions, maxNumberOfListPartitions,
+        hotProbability, coldProbability, maxPartitionParallelism);
+  }
+}
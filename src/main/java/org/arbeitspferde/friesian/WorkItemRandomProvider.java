@@ -0,0 +1,107 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+
+import org.arbeitspferde.friesian.utility.RandomNumberGeneratorType;
+import org.arbeitspferde.friesian.utility.Settings;
+import org.uncommons.maths.random.MersenneTwisterRNG;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Provides every work item with a random number generator of its own, so that workers never
+ * contend for one.
+ *
+ * All generators are created from seeds drawn in turn from a master {@link SplitMixRandom} that is
+ * seeded with the configured seed.  Work items are created one after another by the master
+ * thread, so a run with a given seed gives every work item the same generator, and thus the same
+ * list contents, partition count, sleeps and cache indices, as any other run with that seed.  As a
+ * work item's generator is determined by its seed alone, a {@link WorkloadTrace} records the seed
+ * and sets it again with {@link #setNextSeed(long)} when the work item is replayed.
+ */
+@Singleton
+class WorkItemRandomProvider implements Provider<Random> {
+  private static final Logger log =
+      Logger.getLogger(WorkItemRandomProvider.class.getCanonicalName());
+
+  /** The number of bytes that a {@link MersenneTwisterRNG} is seeded with */
+  private static final int MERSENNE_TWISTER_SEED_BYTES = 16;
+
+  private final RandomNumberGeneratorType type;
+  private final SplitMixRandom master;
+
+  private boolean hasNextSeed = false;
+  private long nextSeed;
+
+  @Inject
+  WorkItemRandomProvider(final Settings settings) {
+    final long seed =
+        settings.getSeed() != null ? settings.getSeed() : new SecureRandom().nextLong();
+    this.type = settings.getRandomNumberGenerator();
+    this.master = new SplitMixRandom(seed);
+
+    log.info(String.format("Work items draw from %s generators derived from seed %d.", type, seed));
+  }
+
+  /** Returns the kind of generator that work items are given */
+  RandomNumberGeneratorType getType() {
+    return type;
+  }
+
+  /**
+   * Returns the seed of the generator that the next work item will be given, drawing it from the
+   * master generator unless it is already known.
+   */
+  synchronized long getNextSeed() {
+    if (!hasNextSeed) {
+      nextSeed = master.nextLong();
+      hasNextSeed = true;
+    }
+    return nextSeed;
+  }
+
+  /** Give the next work item the generator of the given seed instead of one the master draws */
+  synchronized void setNextSeed(final long seed) {
+    nextSeed = seed;
+    hasNextSeed = true;
+  }
+
+  @Override
+  public synchronized Random get() {
+    final long seed = getNextSeed();
+    hasNextSeed = false;
+
+    switch (type) {
+      case SPLIT_MIX:
+        return new SplitMixRandom(seed);
+      case MERSENNE_TWISTER:
+      default:
+        final SplitMixRandom seeds = new SplitMixRandom(seed);
+        final ByteBuffer seedBytes = ByteBuffer.allocate(MERSENNE_TWISTER_SEED_BYTES);
+        while (seedBytes.hasRemaining()) {
+          seedBytes.putLong(seeds.nextLong());
+        }
+        return new MersenneTwisterRNG(seedBytes.array());
+    }
+  }
+}
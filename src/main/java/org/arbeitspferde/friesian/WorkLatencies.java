@@ -0,0 +1,140 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.inject.Singleton;
+
+import org.arbeitspferde.friesian.utility.LatencyHistogram;
+import org.arbeitspferde.friesian.utility.Metric;
+import org.arbeitspferde.friesian.utility.MetricExporter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latency histograms shared by all work engines, and the histograms of the bytes their work
+ * items allocate.  All durations are in nanoseconds.
+ *
+ * The bytes allocated are recorded for all work items together, and again in a histogram per
+ * range of list sizes, from {@link #LIST_SIZE_BOUNDS}, so that how allocation grows with the size
+ * of the list can be read off the ranges, which the bytes per element alone would flatten.
+ */
+@Singleton
+class WorkLatencies {
+  /** The list sizes that begin each range of list sizes after the first, which begins at 1 */
+  static final int[] LIST_SIZE_BOUNDS = {100, 1000, 10000, 100000};
+
+  private final LatencyHistogram dispatchLag = new LatencyHistogram();
+  private final LatencyHistogram queueing = new LatencyHistogram();
+  private final LatencyHistogram workItem = new LatencyHistogram();
+  private final LatencyHistogram partitionSort = new LatencyHistogram();
+  private final LatencyHistogram cache = new LatencyHistogram();
+  private final LatencyHistogram allocatedBytes = new LatencyHistogram();
+  private final LatencyHistogram allocatedBytesPerElement = new LatencyHistogram();
+  private final LatencyHistogram[] allocatedBytesByListSize =
+      new LatencyHistogram[LIST_SIZE_BOUNDS.length + 1];
+  private final AtomicLong workerAllocatedBytes = new AtomicLong();
+
+  WorkLatencies() {
+    for (int i = 0; i < allocatedBytesByListSize.length; i++) {
+      allocatedBytesByListSize[i] = new LatencyHistogram();
+    }
+  }
+
+  /** From the intended arrival of a work item until the master dispatches it */
+  LatencyHistogram getDispatchLag() {
+    return dispatchLag;
+  }
+
+  /** From the intended arrival of a work item until a worker starts it */
+  LatencyHistogram getQueueing() {
+    return queueing;
+  }
+
+  /** From the intended arrival of a work item until it has been cached */
+  LatencyHistogram getWorkItem() {
+    return workItem;
+  }
+
+  /** The sorting of a single partition */
+  LatencyHistogram getPartitionSort() {
+    return partitionSort;
+  }
+
+  /** The caching of a finished work item */
+  LatencyHistogram getCache() {
+    return cache;
+  }
+
+  /**
+   * Record the bytes that a work item allocated on its worker's thread, and, if it has a work list,
+   * the bytes for the range its list size falls in and the bytes per element of the list.
+   */
+  void recordAllocation(final long bytes, final int listSize) {
+    allocatedBytes.record(bytes);
+    if (listSize > 0) {
+      int range = 0;
+      while (range < LIST_SIZE_BOUNDS.length && listSize >= LIST_SIZE_BOUNDS[range]) {
+        range++;
+      }
+      allocatedBytesByListSize[range].record(bytes);
+      allocatedBytesPerElement.record(bytes / listSize);
+    }
+    workerAllocatedBytes.addAndGet(bytes);
+  }
+
+  /** Register the p50, p99, p99.9 and maximum of every histogram with the exporter. */
+  void register(final MetricExporter metricExporter) {
+    register(metricExporter, "jta_dispatch_lag_nanos",
+        "the delay between the intended arrival of a work item and its dispatch", dispatchLag);
+    register(metricExporter, "jta_queueing_delay_nanos",
+        "the delay between the intended arrival of a work item and a worker starting it",
+        queueing);
+    register(metricExporter, "jta_work_item_latency_nanos",
+        "the time from the intended arrival of a work item until it has been cached", workItem);
+    register(metricExporter, "jta_partition_sort_time_nanos",
+        "the time taken to sort one partition", partitionSort);
+    register(metricExporter, "jta_cache_time_nanos",
+        "the time taken to cache a finished work item", cache);
+    register(metricExporter, "jta_work_item_allocated_bytes",
+        "the bytes a work item allocated on its worker's thread", allocatedBytes);
+    register(metricExporter, "jta_work_item_allocated_bytes_per_element",
+        "the bytes a work item allocated on its worker's thread per element of its list",
+        allocatedBytesPerElement);
+    for (int i = 0; i < allocatedBytesByListSize.length; i++) {
+      final int first = i == 0 ? 1 : LIST_SIZE_BOUNDS[i - 1];
+      final String range = i < LIST_SIZE_BOUNDS.length
+          ? first + "_to_" + (LIST_SIZE_BOUNDS[i] - 1) : first + "_and_up";
+      register(metricExporter, "jta_work_item_allocated_bytes_lists_" + range,
+          "the bytes a work item allocated on its worker's thread, of lists of "
+          + range.replace('_', ' ') + " elements", allocatedBytesByListSize[i]);
+    }
+    metricExporter.register("jta_worker_allocated_bytes",
+        "The bytes allocated by work items on their workers' threads since startup",
+        Metric.make(workerAllocatedBytes));
+  }
+
+  private static void register(final MetricExporter metricExporter, final String name,
+      final String description, final LatencyHistogram histogram) {
+    metricExporter.register(name + "_p50", "The median of " + description,
+        Metric.makePercentile(histogram, 50.0));
+    metricExporter.register(name + "_p99", "The 99th percentile of " + description,
+        Metric.makePercentile(histogram, 99.0));
+    metricExporter.register(name + "_p999", "The 99.9th percentile of " + description,
+        Metric.makePercentile(histogram, 99.9));
+    metricExporter.register(name + "_max", "The maximum of " + description,
+        Metric.makeMax(histogram));
+  }
+}
@@ -0,0 +1,360 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import org.arbeitspferde.friesian.utility.Metric;
+import org.arbeitspferde.friesian.utility.MetricExporter;
+import org.arbeitspferde.friesian.utility.MetricListener;
+import org.arbeitspferde.friesian.utility.RejectionPolicy;
+import org.arbeitspferde.friesian.utility.Settings;
+import org.arbeitspferde.friesian.utility.WorkerSchedulerType;
+
+/**
+ * Runs work items on the kind of thread pool chosen in the {@link Settings}.
+ *
+ * The CACHED scheduler behaves like {@link Executors#newCachedThreadPool()} and never refuses work.
+ * The BOUNDED and WORK_STEALING schedulers have a fixed number of threads and admit at most the
+ * pool size plus the queue capacity work items at once; once that many are outstanding, the
+ * {@link RejectionPolicy} decides what becomes of the next one.  This keeps an offered load that
+ * exceeds what the machine can sort from turning into thread thrash.
+ *
+ * The VIRTUAL scheduler starts a virtual thread for every work item and, like CACHED, never refuses
+ * work.  A worker that sleeps unmounts from its carrier thread, so very many blocked work items can
+ * be simulated with a handful of platform threads.  It is looked up reflectively because it needs
+ * Java 21, and exports how many carrier threads exist and how many of them are busy.  These are read
+ * from the carrier pool where java.lang is opened to reflection.  Otherwise they are counted from
+ * every live thread, which stops the JVM at a safepoint, so that count is refreshed at most every
+ * few seconds rather than on every scrape.
+ */
+@Singleton
+class WorkerScheduler {
+  private static final Logger log = Logger.getLogger(WorkerScheduler.class.getCanonicalName());
+
+  /** The class of the platform threads that virtual threads are mounted on */
+  private static final String CARRIER_THREAD_CLASS_NAME = "jdk.internal.misc.CarrierThread";
+
+  /** The system property that sizes the default virtual thread scheduler */
+  private static final String CARRIER_PARALLELISM_PROPERTY =
+      "jdk.virtualThreadScheduler.parallelism";
+
+  /** How long a count of the carrier threads taken from every live thread is reused for */
+  private static final long CARRIER_COUNT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  private final AtomicLong jtaWorkerRejections = new AtomicLong();
+  private final AtomicLong jtaVirtualWorkers = new AtomicLong();
+
+  private final WorkerSchedulerType type;
+  private final RejectionPolicy rejectionPolicy;
+  private final int poolSize;
+  private final int queueCapacity;
+  private final MetricExporter metricExporter;
+
+  private ExecutorService executor;
+  @Nullable private Semaphore admissions;
+  @Nullable private ForkJoinPool carrierPool;
+
+  private long carrierCountNanos;
+  private int carrierThreads;
+  private int busyCarrierThreads;
+
+  @Inject
+  WorkerScheduler(final Settings settings, final MetricExporter metricExporter) {
+    this.type = settings.getWorkerScheduler();
+    this.rejectionPolicy = settings.getRejectionPolicy();
+    this.poolSize = settings.getWorkerPoolSize();
+    this.queueCapacity = settings.getWorkerQueueCapacity();
+    this.metricExporter = metricExporter;
+
+    Preconditions.checkArgument(poolSize > 0, "workerPoolSize must be positive.");
+    Preconditions.checkArgument(queueCapacity >= 0, "workerQueueCapacity may not be negative.");
+  }
+
+  /**
+   * Create the thread pool and register its metrics.  The metric exporter must already be
+   * initialized.
+   */
+  public void start() {
+    Preconditions.checkState(executor == null, "The scheduler has already been started.");
+
+    switch (type) {
+      case BOUNDED:
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>());
+        admissions = new Semaphore(poolSize + queueCapacity);
+        break;
+      case WORK_STEALING:
+        executor = new ForkJoinPool(poolSize, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+            null, true);
+        admissions = new Semaphore(poolSize + queueCapacity);
+        break;
+      case VIRTUAL:
+        executor = newVirtualThreadPerTaskExecutor();
+        admissions = null;
+        registerCarrierMetrics();
+        break;
+      case CACHED:
+      default:
+        executor = Executors.newCachedThreadPool();
+        admissions = null;
+        break;
+    }
+
+    log.info(String.format("Scheduling work items on a %s pool.", type));
+
+    metricExporter.register("jta_worker_queue_depth",
+        "The number of work items waiting for a worker thread",
+        new MetricListener<Long>() {
+          @Override
+          public Long value() {
+            return getQueueDepth();
+          }
+        });
+    metricExporter.register("jta_worker_active_count",
+        "The number of worker threads that are currently running a work item",
+        new MetricListener<Integer>() {
+          @Override
+          public Integer value() {
+            return getActiveCount();
+          }
+        });
+    metricExporter.register("jta_worker_rejections",
+        "The number of work items the scheduler was full for since startup",
+        Metric.make(jtaWorkerRejections));
+  }
+
+  /**
+   * Schedule a work item.
+   *
+   * @return true if the work item was run or scheduled, or false if it was dropped.
+   * @throws InterruptedException if the master was interrupted while blocked on a full scheduler.
+   */
+  public boolean execute(final Runnable workItem) throws InterruptedException {
+    Preconditions.checkState(executor != null, "The scheduler has not been started.");
+
+    if (type == WorkerSchedulerType.VIRTUAL) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          jtaVirtualWorkers.incrementAndGet();
+          try {
+            workItem.run();
+          } finally {
+            jtaVirtualWorkers.decrementAndGet();
+          }
+        }
+      });
+      return true;
+    }
+
+    if (admissions == null) {
+      executor.execute(workItem);
+      return true;
+    }
+
+    if (!admissions.tryAcquire()) {
+      jtaWorkerRejections.incrementAndGet();
+
+      switch (rejectionPolicy) {
+        case DROP:
+          return false;
+        case CALLER_RUNS:
+          workItem.run();
+          return true;
+        case BLOCK:
+        default:
+          admissions.acquire();
+          break;
+      }
+    }
+
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            workItem.run();
+          } finally {
+            admissions.release();
+          }
+        }
+      });
+    } catch (final RuntimeException e) {
+      admissions.release();
+      throw e;
+    }
+    return true;
+  }
+
+  /**
+   * Stop accepting work items and wait until every scheduled one has finished.
+   *
+   * @throws InterruptedException if the master was interrupted while waiting.
+   */
+  public void shutdown() throws InterruptedException {
+    Preconditions.checkState(executor != null, "The scheduler has not been started.");
+
+    executor.shutdown();
+    while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+      // Work items may sleep and queue for a long time; keep waiting for them.
+    }
+  }
+
+  private long getQueueDepth() {
+    if (executor instanceof ThreadPoolExecutor) {
+      return ((ThreadPoolExecutor) executor).getQueue().size();
+    } else if (executor instanceof ForkJoinPool) {
+      final ForkJoinPool pool = (ForkJoinPool) executor;
+      return pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+    }
+    return 0;
+  }
+
+  private int getActiveCount() {
+    if (executor instanceof ThreadPoolExecutor) {
+      return ((ThreadPoolExecutor) executor).getActiveCount();
+    } else if (executor instanceof ForkJoinPool) {
+      return ((ForkJoinPool) executor).getActiveThreadCount();
+    } else if (type == WorkerSchedulerType.VIRTUAL) {
+      return (int) jtaVirtualWorkers.get();
+    }
+    return 0;
+  }
+
+  private void registerCarrierMetrics() {
+    final int carrierParallelism = Integer.getInteger(CARRIER_PARALLELISM_PROPERTY,
+        Runtime.getRuntime().availableProcessors());
+    carrierPool = findCarrierPool();
+
+    metricExporter.register("jta_carrier_parallelism",
+        "The number of carrier threads the virtual thread scheduler aims to keep busy",
+        new MetricListener<Integer>() {
+          @Override
+          public Integer value() {
+            return carrierParallelism;
+          }
+        });
+    metricExporter.register("jta_carrier_threads",
+        "The number of carrier threads that currently exist",
+        new MetricListener<Integer>() {
+          @Override
+          public Integer value() {
+            return getCarrierThreads(false);
+          }
+        });
+    metricExporter.register("jta_carrier_threads_busy",
+        "The number of carrier threads that currently have a virtual thread mounted",
+        new MetricListener<Integer>() {
+          @Override
+          public Integer value() {
+            return getCarrierThreads(true);
+          }
+        });
+  }
+
+  /** Returns the number of carrier threads, or only of those with a virtual thread mounted */
+  private int getCarrierThreads(final boolean busyOnly) {
+    if (carrierPool != null) {
+      return busyOnly ? carrierPool.getActiveThreadCount() : carrierPool.getPoolSize();
+    }
+    synchronized (this) {
+      final long now = System.nanoTime();
+      if (carrierCountNanos == 0 || now - carrierCountNanos >= CARRIER_COUNT_INTERVAL_NANOS) {
+        countCarrierThreads();
+        carrierCountNanos = now;
+      }
+      return busyOnly ? busyCarrierThreads : carrierThreads;
+    }
+  }
+
+  /**
+   * Count the carrier threads, and those of them that are running.  An idle carrier is parked
+   * waiting for work, so a runnable one has a virtual thread mounted.
+   */
+  private void countCarrierThreads() {
+    int count = 0;
+    int busy = 0;
+    for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (CARRIER_THREAD_CLASS_NAME.equals(thread.getClass().getName())) {
+        count++;
+        if (thread.getState() == Thread.State.RUNNABLE) {
+          busy++;
+        }
+      }
+    }
+    carrierThreads = count;
+    busyCarrierThreads = busy;
+  }
+
+  /**
+   * Returns the fork/join pool of the default virtual thread scheduler, or null if this JVM does
+   * not open it to reflection.
+   */
+  @Nullable
+  private static ForkJoinPool findCarrierPool() {
+    try {
+      final Field scheduler =
+          Class.forName("java.lang.VirtualThread").getDeclaredField("DEFAULT_SCHEDULER");
+      scheduler.setAccessible(true);
+      final Object pool = scheduler.get(null);
+      if (pool instanceof ForkJoinPool) {
+        return (ForkJoinPool) pool;
+      }
+    } catch (final ReflectiveOperationException e) {
+      log.log(Level.FINE, "Unable to find the virtual thread scheduler.", e);
+    } catch (final RuntimeException e) {
+      // Thrown as InaccessibleObjectException when java.lang is not opened to this module.
+      log.log(Level.FINE, "Unable to open the virtual thread scheduler.", e);
+    }
+    log.info("Counting carrier threads from every live thread every "
+        + TimeUnit.NANOSECONDS.toSeconds(CARRIER_COUNT_INTERVAL_NANOS) + " seconds; open "
+        + "java.base/java.lang to read them from the scheduler on every scrape instead.");
+    return null;
+  }
+
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (final NoSuchMethodException e) {
+      throw new IllegalStateException(
+          "The VIRTUAL worker scheduler needs Java 21 or later; this is Java "
+              + System.getProperty("java.version") + ".", e);
+    } catch (final IllegalAccessException e) {
+      throw new IllegalStateException("Unable to create a virtual thread executor.", e);
+    } catch (final InvocationTargetException e) {
+      throw new IllegalStateException("Unable to create a virtual thread executor.", e.getCause());
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import com.google.common.base.Charsets;
+
+import org.arbeitspferde.friesian.utility.RandomNumberGeneratorType;
+import org.arbeitspferde.friesian.utility.WorkEngineType;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * A compact binary record of the work items of a run, from which the same workload can be
+ * replayed through the same work engines.
+ *
+ * Everything a work item draws at random, from its list contents to its sleeps and cache slots,
+ * comes from a generator of its own that is created from a single seed by the
+ * {@link WorkItemRandomProvider}.  A work item is therefore recorded as no more than the offset of
+ * its intended arrival from that of the first work item, the seed of its generator and its
+ * {@link WorkItemParameters}, in a fixed size record.  The header names the work engine and kind of
+ * generator the trace was recorded with, since a replay only reproduces the workload with both.
+ *
+ * Records are gathered in a direct buffer and written to the file channel a buffer at a time, so
+ * that the master thread seldom blocks on I/O.
+ */
+final class WorkloadTrace {
+  private static final Logger log = Logger.getLogger(WorkloadTrace.class.getCanonicalName());
+
+  /** The first bytes of every trace file, "FRTR" */
+  private static final int MAGIC = 0x46525452;
+  private static final short VERSION = 1;
+
+  /** The arrival offset and generator seed of a work item, followed by its parameters */
+  private static final int RECORD_BYTES = 8 + 8 + WorkItemParameters.BYTES;
+  private static final int BUFFER_BYTES = 64 * 1024;
+
+  private WorkloadTrace() {
+  }
+
+  /** Records work items to a new trace file, replacing any file that is already there */
+  static final class Writer implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+    private long firstIntendedNanos;
+    private long count;
+
+    Writer(final File file, final WorkEngineType workEngine,
+        final RandomNumberGeneratorType randomNumberGenerator) throws IOException {
+      this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+      buffer.putInt(MAGIC).putShort(VERSION);
+      putString(workEngine.name());
+      putString(randomNumberGenerator.name());
+    }
+
+    /**
+     * Record a work item that was due at the given {@link System#nanoTime()} and given the
+     * generator of the given seed.  Work items recorded after the trace is closed are ignored.
+     */
+    synchronized void write(final long intendedNanos, final long seed,
+        final WorkItemParameters parameters) throws IOException {
+      if (!channel.isOpen()) {
+        return;
+      }
+      if (count == 0) {
+        firstIntendedNanos = intendedNanos;
+      }
+      if (buffer.remaining() < RECORD_BYTES) {
+        flush();
+      }
+      buffer.putLong(intendedNanos - firstIntendedNanos).putLong(seed);
+      parameters.write(buffer);
+      count++;
+    }
+
+    /** Returns the number of work items recorded so far */
+    synchronized long getCount() {
+      return count;
+    }
+
+    /** Write out the work items that are still buffered, and close the file */
+    @Override
+    public synchronized void close() throws IOException {
+      if (!channel.isOpen()) {
+        return;
+      }
+      try {
+        flush();
+      } finally {
+        channel.close();
+      }
+    }
+
+    private void putString(final String value) {
+      final byte[] bytes = value.getBytes(Charsets.UTF_8);
+      buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+  }
+
+  /** Reads the work items of a trace file back one at a time */
+  static final class Reader implements Closeable {
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final WorkEngineType workEngine;
+    private final RandomNumberGeneratorType randomNumberGenerator;
+
+    private long offsetNanos;
+    private long seed;
+    private WorkItemParameters parameters;
+
+    Reader(final File file) throws IOException {
+      this.file = file;
+      this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      buffer.flip();
+      if (!fill(4 + 2) || buffer.getInt() != MAGIC) {
+        channel.close();
+        throw new IOException(file + " is not a workload trace.");
+      }
+      final short version = buffer.getShort();
+      if (version != VERSION) {
+        channel.close();
+        throw new IOException(
+            String.format("%s is a version %d workload trace; only version %d is supported.",
+                file, version, VERSION));
+      }
+      this.workEngine = WorkEngineType.valueOf(getString());
+      this.randomNumberGenerator = RandomNumberGeneratorType.valueOf(getString());
+    }
+
+    /** Returns the kind of work engine the trace was recorded with */
+    WorkEngineType getWorkEngine() {
+      return workEngine;
+    }
+
+    /** Returns the kind of generator the trace's work items were given */
+    RandomNumberGeneratorType getRandomNumberGenerator() {
+      return randomNumberGenerator;
+    }
+
+    /**
+     * Move on to the next work item of the trace.
+     *
+     * @return true if there was another work item, or false at the end of the trace.
+     */
+    boolean next() throws IOException {
+      if (!fill(RECORD_BYTES)) {
+        if (buffer.hasRemaining()) {
+          log.warning(String.format("%s ends with %d bytes of a truncated work item.", file,
+              buffer.remaining()));
+        }
+        return false;
+      }
+      offsetNanos = buffer.getLong();
+      seed = buffer.getLong();
+      parameters = WorkItemParameters.read(buffer);
+      return true;
+    }
+
+    /** Returns how long after the first work item the current one was due, in nanoseconds */
+    long getOffsetNanos() {
+      return offsetNanos;
+    }
+
+    /** Returns the seed of the current work item's generator */
+    long getSeed() {
+      return seed;
+    }
+
+    /** Returns the current work item's parameters */
+    WorkItemParameters getParameters() {
+      return parameters;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+
+    private String getString() throws IOException {
+      if (!fill(2)) {
+        throw new IOException(file + " has a truncated header.");
+      }
+      final int length = buffer.getShort() & 0xffff;
+      if (!fill(length)) {
+        throw new IOException(file + " has a truncated header.");
+      }
+      final byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      return new String(bytes, Charsets.UTF_8);
+    }
+
+    /** Read from the file until at least the given number of bytes are buffered, if it has them */
+    private boolean fill(final int bytes) throws IOException {
+      if (buffer.remaining() >= bytes) {
+        return true;
+      }
+      buffer.compact();
+      while (buffer.position() < bytes && channel.read(buffer) >= 0) {
+        // Keep reading; a channel may return fewer bytes than there is room for.
+      }
+      buffer.flip();
+      return buffer.remaining() >= bytes;
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian.open;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.arbeitspferde.friesian.utility.MetricExporter;
+import org.arbeitspferde.friesian.utility.MetricListener;
+import org.arbeitspferde.friesian.utility.Settings;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link MetricExporter} that serves the current value of every registered metric over HTTP on
+ * the configured port.
+ *
+ * "/metrics" answers in the Prometheus text exposition format and "/metrics.json" with a JSON
+ * object that maps each metric name to its description and value.  Requests are answered by a
+ * single daemon thread of the exporter's own; reading a metric only reads its
+ * {@link MetricListener}, so a scrape never holds up the workers.
+ */
+@Singleton
+public class HttpMetricExporter implements MetricExporter {
+  private static final Logger log = Logger.getLogger(HttpMetricExporter.class.getCanonicalName());
+
+  private final ConcurrentNavigableMap<String, RegisteredMetric> metrics =
+      new ConcurrentSkipListMap<String, RegisteredMetric>();
+  private final int port;
+
+  @Nullable private HttpServer server;
+
+  @Inject
+  public HttpMetricExporter(final Settings settings) {
+    this.port = settings.getPort();
+  }
+
+  @Override
+  public void register(final String name, final String description,
+      final MetricListener<?> metric) {
+    Preconditions.checkNotNull(name, "name may not be null.");
+    Preconditions.checkNotNull(metric, "metric may not be null.");
+
+    if (metrics.putIfAbsent(name, new RegisteredMetric(description, metric)) != null) {
+      log.warning(String.format("Metric %s is already registered; ignoring the new one.", name));
+    }
+  }
+
+  @Override
+  public synchronized void init() {
+    if (server != null) {
+      return;
+    }
+
+    try {
+      server = HttpServer.create(new InetSocketAddress(port), 0);
+    } catch (final IOException e) {
+      throw new IllegalStateException(String.format("Unable to serve metrics on port %d.", port),
+          e);
+    }
+    server.createContext("/metrics", new HttpHandler() {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+        if (exchange.getRequestURI().getPath().equals("/metrics.json")) {
+          respond(exchange, "application/json; charset=utf-8", renderJson());
+        } else {
+          respond(exchange, "text/plain; version=0.0.4; charset=utf-8", renderText());
+        }
+      }
+    });
+    server.setExecutor(Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("metric-exporter-%d")
+        .setDaemon(true)
+        .build()));
+    server.start();
+
+    log.info(String.format("Serving metrics on port %d.", server.getAddress().getPort()));
+  }
+
+  /** Render all metrics in the Prometheus text exposition format. */
+  String renderText() {
+    final StringBuilder text = new StringBuilder();
+    for (final Map.Entry<String, RegisteredMetric> entry : metrics.entrySet()) {
+      final Object value = entry.getValue().read(entry.getKey());
+      if (!(value instanceof Number)) {
+        continue;
+      }
+      final String description = entry.getValue().description;
+      if (description != null) {
+        text.append("# HELP ").append(entry.getKey()).append(' ')
+            .append(description.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+      }
+      text.append("# TYPE ").append(entry.getKey()).append(" untyped\n");
+      text.append(entry.getKey()).append(' ').append(value).append('\n');
+    }
+    return text.toString();
+  }
+
+  /** Render all metrics as a JSON object. */
+  String renderJson() {
+    final StringBuilder json = new StringBuilder("{");
+    boolean first = true;
+    for (final Map.Entry<String, RegisteredMetric> entry : metrics.entrySet()) {
+      final Object value = entry.getValue().read(entry.getKey());
+      if (!first) {
+        json.append(',');
+      }
+      first = false;
+      json.append("\n  ");
+      appendJsonString(json, entry.getKey());
+      json.append(": {\"description\": ");
+      appendJsonString(json, entry.getValue().description);
+      json.append(", \"value\": ");
+      appendJsonValue(json, value);
+      json.append('}');
+    }
+    return json.append("\n}\n").toString();
+  }
+
+  private static void respond(final HttpExchange exchange, final String contentType,
+      final String body) throws IOException {
+    try {
+      if (!exchange.getRequestMethod().equals("GET")) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      final byte[] bytes = body.getBytes(Charsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", contentType);
+      exchange.sendResponseHeaders(200, bytes.length);
+      final OutputStream responseBody = exchange.getResponseBody();
+      responseBody.write(bytes);
+      responseBody.close();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void appendJsonValue(final StringBuilder json, @Nullable final Object value) {
+    if (value == null) {
+      json.append("null");
+    } else if (value instanceof Double || value instanceof Float) {
+      final double number = ((Number) value).doubleValue();
+      if (Double.isNaN(number) || Double.isInfinite(number)) {
+        json.append("null");
+      } else {
+        json.append(value);
+      }
+    } else if (value instanceof Number || value instanceof Boolean) {
+      json.append(value);
+    } else {
+      appendJsonString(json, value.toString());
+    }
+  }
+
+  private static void appendJsonString(final StringBuilder json, @Nullable final String string) {
+    if (string == null) {
+      json.append("null");
+      return;
+    }
+    json.append('"');
+    for (int i = 0; i < string.length(); i++) {
+      final char c = string.charAt(i);
+      switch (c) {
+        case '"':
+          json.append("\\\"");
+          break;
+        case '\\':
+          json.append("\\\\");
+          break;
+        case '\n':
+          json.append("\\n");
+          break;
+        default:
+          if (c < 0x20) {
+            json.append(String.format("\\u%04x", (int) c));
+          } else {
+            json.append(c);
+          }
+      }
+    }
+    json.append('"');
+  }
+
+  /** A metric's listener together with its description */
+  private static final class RegisteredMetric {
+    @Nullable private final String description;
+    private final MetricListener<?> listener;
+
+    RegisteredMetric(@Nullable final String description, final MetricListener<?> listener) {
+      this.description = description;
+      this.listener = listener;
+    }
+
+    /** Read the metric's value, or null if its listener failed. */
+    @Nullable
+    Object read(final String name) {
+      try {
+        return listener.value();
+      } catch (final RuntimeException e) {
+        log.log(Level.FINE, String.format("Unable to read metric %s.", name), e);
+        return null;
+      }
+    }
+  }
+}
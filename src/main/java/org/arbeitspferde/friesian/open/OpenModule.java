@@ -16,7 +16,11 @@
 package org.arbeitspferde.friesian.open;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Provider;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
 import org.arbeitspferde.friesian.utility.MetricExporter;
+import org.arbeitspferde.friesian.utility.Settings;
 import org.arbeitspferde.friesian.utility.SupplementalSettingsProcessor;
 
 /**
@@ -25,7 +29,14 @@ import org.arbeitspferde.friesian.utility.SupplementalSettingsProcessor;
 public class OpenModule extends AbstractModule {
   @Override
   protected void configure() {
-    bind(MetricExporter.class).to(NullMetricExporter.class);
     bind(SupplementalSettingsProcessor.class).to(NullSupplementalSettingsProcessor.class);
   }
+
+  @Provides
+  @Singleton
+  MetricExporter getMetricExporter(final Settings settings,
+      final Provider<HttpMetricExporter> httpMetricExporter,
+      final Provider<NullMetricExporter> nullMetricExporter) {
+    return settings.getPort() < 0 ? nullMetricExporter.get() : httpMetricExporter.get();
+  }
 }
@@ -0,0 +1,31 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian.utility;
+
+/**
+ * How the intervals between arrivals are spread around the interval that the arrival rate asks
+ * for.
+ */
+public enum ArrivalProcess {
+  /** Arrivals are evenly spaced at the interval that the rate asks for. */
+  UNIFORM,
+
+  /**
+   * The intervals are drawn from an exponential distribution whose mean is the interval that the
+   * rate asks for, so that arrivals form a Poisson process, as independent users do.
+   */
+  POISSON
+}
@@ -0,0 +1,39 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian.utility;
+
+/**
+ * The kinds of cache that the hot and cold caches may be built from.
+ */
+public enum CacheType {
+  /** A synchronized list of hard references. */
+  HARD_REFERENCE,
+
+  /** A fixed array of hard references that is updated without locks. */
+  LOCK_FREE,
+
+  /** Copies of the work lists in slab-allocated direct memory outside of the Java heap. */
+  OFF_HEAP,
+
+  /** Copies of the work lists in slots of a memory-mapped file; meant for the cold cache. */
+  MAPPED_FILE,
+
+  /** A Guava cache built from a CacheBuilderSpec, with weak, soft, bounded or expiring entries. */
+  MAP_MAKER,
+
+  /** A bounded cache that admits entries by their frequency, in the manner of W-TinyLFU. */
+  TINY_LFU
+}
@@ -0,0 +1,33 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian.utility;
+
+/**
+ * What the load controller drives toward its setpoint by raising and lowering the load.
+ */
+public enum ControlTarget {
+  /** The load is not controlled. */
+  NONE,
+
+  /** The percentage of the old generation that is occupied. */
+  OLD_GEN_OCCUPANCY,
+
+  /** The megabytes allocated per second by all threads. */
+  ALLOCATION_RATE,
+
+  /** The percentage of wall clock time spent in garbage collection. */
+  GC_TIME
+}
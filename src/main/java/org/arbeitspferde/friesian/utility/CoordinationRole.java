@@ -0,0 +1,33 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian.utility;
+
+/**
+ * The part a process plays in generating load together with others.
+ */
+public enum CoordinationRole {
+  /** The process generates the whole load on its own. */
+  STANDALONE,
+
+  /**
+   * The process owns the arrival rate and shares it out among the worker processes connected to
+   * it, but runs no work items itself.
+   */
+  COORDINATOR,
+
+  /** The process runs work items at the share of the arrival rate its coordinator gives it. */
+  WORKER
+}
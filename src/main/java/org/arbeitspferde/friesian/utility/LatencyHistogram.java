@@ -0,0 +1,110 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian.utility;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative durations in nanoseconds.
+ *
+ * Like an HDR histogram, values are counted in log-linear buckets: every power of two is split into
+ * 64 equally wide sub-buckets, so any recorded value is reported with a relative error of less than
+ * two percent across the whole range of a long.  Recording is a single atomic increment and never
+ * allocates; percentiles are computed from a walk over the buckets in place when they are read, so
+ * reading them does not allocate either.  The histogram accumulates from its creation.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+  private static final int BUCKET_COUNT =
+      SUB_BUCKET_COUNT + (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong max = new AtomicLong();
+
+  /** Record a duration. Negative durations, which a non-monotonic clock may yield, count as 0. */
+  public void record(final long nanos) {
+    final long value = Math.max(nanos, 0L);
+    counts.incrementAndGet(indexFor(value));
+
+    long currentMax = max.get();
+    while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+      currentMax = max.get();
+    }
+  }
+
+  /** Returns the number of recorded durations */
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /** Returns the largest recorded duration, or 0 if none was recorded */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the smallest duration that the given percentage of recorded durations do not exceed, to
+   * within the precision of the histogram, or 0 if none was recorded.
+   */
+  public long getValueAtPercentile(final double percentile) {
+    Preconditions.checkArgument(percentile >= 0.0 && percentile <= 100.0,
+        "percentile must be between 0 and 100.");
+
+    final long count = getCount();
+    if (count == 0) {
+      return 0;
+    }
+
+    // Durations recorded after the count only add to the buckets, so the walk still reaches rank.
+    final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestValueFor(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  private static int indexFor(final long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    final int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+    return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT
+        + (int) ((value >>> shift) - SUB_BUCKET_HALF_COUNT);
+  }
+
+  private static long highestValueFor(final int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+    final long subBucket =
+        (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,43 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian.utility;
+
+/**
+ * The shape of the arrival rate over time.  The shapes other than DIURNAL and CSV move between
+ * the base rate and the peak rate at the times that the shape period and duty cycle give.
+ */
+public enum LoadShapeType {
+  /** The rate follows a cosine curve over the diurnal period, scaled by the rate constants. */
+  DIURNAL,
+
+  /** The rate is the base rate, and steps up to the peak rate once a shape period has passed. */
+  STEP,
+
+  /** The rate rises linearly from the base rate to the peak rate over a shape period, and stays. */
+  RAMP,
+
+  /**
+   * The rate is the base rate, but for a single spike to the peak rate that starts once a shape
+   * period has passed and lasts for the duty cycle's share of a shape period.
+   */
+  SPIKE,
+
+  /** The rate is at the peak rate for the duty cycle's share of every shape period, else base. */
+  SQUARE_WAVE,
+
+  /** The rate follows a schedule of seconds and arrivals per second read from the shape file. */
+  CSV
+}
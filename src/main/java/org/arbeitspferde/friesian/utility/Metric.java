@@ -32,4 +32,29 @@ public class Metric {
       }
     };
   }
+
+  /**
+   * Produce a {@link MetricListener} that exposes the duration at the given percentile of a
+   * {@link LatencyHistogram} to the {@link MetricExporter}.
+   */
+  public static MetricListener<Long> makePercentile(final LatencyHistogram histogram,
+      final double percentile) {
+    return new MetricListener<Long>() {
+      public Long value() {
+        return histogram.getValueAtPercentile(percentile);
+      }
+    };
+  }
+
+  /**
+   * Produce a {@link MetricListener} that exposes the largest duration of a
+   * {@link LatencyHistogram} to the {@link MetricExporter}.
+   */
+  public static MetricListener<Long> makeMax(final LatencyHistogram histogram) {
+    return new MetricListener<Long>() {
+      public Long value() {
+        return histogram.getMax();
+      }
+    };
+  }
 }
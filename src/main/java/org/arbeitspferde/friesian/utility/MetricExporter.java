@@ -17,8 +17,9 @@ package org.arbeitspferde.friesian.utility;
 
 /**
  * {@link MetricExporter} is a means of exposing metrics of a given name to a time series processor
- * or experimental test harness.  The default implementation {@link NullMetricExporter} simply does
- * nothing.
+ * or experimental test harness.  The default implementation
+ * {@link org.arbeitspferde.friesian.open.HttpMetricExporter} serves them over HTTP;
+ * {@link org.arbeitspferde.friesian.open.NullMetricExporter} simply does nothing.
  */
 public interface MetricExporter {
   /**
@@ -0,0 +1,80 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian.utility;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The names and aliases of the args4j options that Friesian accepts, as listed at build time by
+ * the {@link OptionRegistryProcessor} in a resource of each jar that declares options.
+ *
+ * The processor is registered in the Friesian jar as a service, so any jar compiled against it
+ * lists its own options, unless its build names its annotation processors and leaves this one out.
+ *
+ * Reading the registry takes a handful of resource lookups, where finding the options by scanning
+ * the classpath for annotated fields took a noticeable share of the time to the first work item.
+ */
+public final class OptionRegistry {
+  /** The resource that lists one option name or alias per line */
+  public static final String RESOURCE = "META-INF/friesian/options";
+
+  /** Only options declared below this package are registered */
+  static final String PACKAGE_PREFIX = "org.arbeitspferde";
+
+  private OptionRegistry() {
+  }
+
+  /**
+   * Returns the option names and aliases listed by every registry that the class loader can see.
+   * If there is none, as when the sources were compiled without the processor by an IDE, the
+   * options declared by the fallback class are read from its fields instead.
+   */
+  public static Set<String> load(final ClassLoader classLoader, final Class<?> fallback)
+      throws IOException {
+    final Set<String> names = new HashSet<String>();
+    final Enumeration<URL> registries = classLoader.getResources(RESOURCE);
+    while (registries.hasMoreElements()) {
+      for (final String line : Resources.readLines(registries.nextElement(), Charsets.UTF_8)) {
+        final String name = line.trim();
+        if (!name.isEmpty()) {
+          names.add(name);
+        }
+      }
+    }
+    if (names.isEmpty()) {
+      for (final Field field : fallback.getDeclaredFields()) {
+        final Option option = field.getAnnotation(Option.class);
+        if (option != null) {
+          names.add(option.name());
+          for (final String alias : option.aliases()) {
+            names.add(alias);
+          }
+        }
+      }
+    }
+    return names;
+  }
+}
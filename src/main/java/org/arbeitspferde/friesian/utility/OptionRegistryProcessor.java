@@ -0,0 +1,115 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian.utility;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * An annotation processor that writes the names and aliases of the args4j options declared below
+ * {@link OptionRegistry#PACKAGE_PREFIX} to the {@link OptionRegistry#RESOURCE} of the classes it
+ * compiles.
+ *
+ * It reads the annotations as mirrors, so it needs neither args4j nor the annotated classes to be
+ * loadable while it runs.  The registry is written once every round is over and only if options
+ * were found, so compiling sources that declare none leaves no empty registry behind.
+ */
+@SupportedAnnotationTypes(OptionRegistryProcessor.OPTION)
+public class OptionRegistryProcessor extends AbstractProcessor {
+  static final String OPTION = "org.kohsuke.args4j.Option";
+
+  private final Set<String> names = new TreeSet<String>();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(final Set<? extends TypeElement> annotations,
+      final RoundEnvironment roundEnvironment) {
+    final Elements elements = processingEnv.getElementUtils();
+    for (final TypeElement annotation : annotations) {
+      for (final Element element : roundEnvironment.getElementsAnnotatedWith(annotation)) {
+        if (!elements.getPackageOf(element).getQualifiedName().toString()
+            .startsWith(OptionRegistry.PACKAGE_PREFIX)) {
+          continue;
+        }
+        for (final AnnotationMirror mirror : element.getAnnotationMirrors()) {
+          if (mirror.getAnnotationType().toString().equals(OPTION)) {
+            register(mirror);
+          }
+        }
+      }
+    }
+
+    if (roundEnvironment.processingOver() && !names.isEmpty()) {
+      write();
+    }
+    return false;
+  }
+
+  private void register(final AnnotationMirror option) {
+    for (final Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+        : option.getElementValues().entrySet()) {
+      final String key = entry.getKey().getSimpleName().toString();
+      if (key.equals("name")) {
+        names.add((String) entry.getValue().getValue());
+      } else if (key.equals("aliases")) {
+        for (final Object alias : (List<?>) entry.getValue().getValue()) {
+          names.add((String) ((AnnotationValue) alias).getValue());
+        }
+      }
+    }
+  }
+
+  private void write() {
+    try {
+      final FileObject registry = processingEnv.getFiler()
+          .createResource(StandardLocation.CLASS_OUTPUT, "", OptionRegistry.RESOURCE);
+      final Writer writer = registry.openWriter();
+      try {
+        for (final String name : names) {
+          writer.write(name);
+          writer.write('\n');
+        }
+      } finally {
+        writer.close();
+      }
+    } catch (final IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+          "Unable to write " + OptionRegistry.RESOURCE + ": " + e);
+    }
+  }
+}
@@ -0,0 +1,30 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian.utility;
+
+/**
+ * What a bounded scheduler does with a work item when its queue is full.
+ */
+public enum RejectionPolicy {
+  /** The master waits until there is room for the work item. */
+  BLOCK,
+
+  /** The work item is discarded. */
+  DROP,
+
+  /** The master performs the work item itself. */
+  CALLER_RUNS
+}
@@ -15,8 +15,15 @@
 
 package org.arbeitspferde.friesian.utility;
 
+import java.io.File;
+
+import javax.annotation.Nullable;
+
 /**
  * A read-only configuration singleton for the test application.
+ *
+ * The settings that shape the load can be changed while the test runs, which the values here do
+ * not reflect; those are read from the live settings.
  */
 public interface Settings {
   public Double getRateSlopeConstant();
@@ -33,4 +40,47 @@ public interface Settings {
   public Integer getSleepProbability();
   public Double getDiurnalPeriod();
   public Integer getPort();
+  public WorkEngineType getWorkEngine();
+  public Integer getMaxPartitionParallelism();
+  public WorkerSchedulerType getWorkerScheduler();
+  public Integer getWorkerPoolSize();
+  public Integer getWorkerQueueCapacity();
+  public RejectionPolicy getRejectionPolicy();
+  public CacheType getHotCacheType();
+  public CacheType getColdCacheType();
+  public File getMappedCacheDirectory();
+  public Integer getMaxArrivalBatch();
+  public RandomNumberGeneratorType getRandomNumberGenerator();
+  @Nullable public Long getSeed();
+  public Integer getGraphBytesPerWorkItem();
+  public Integer getGraphAllocationRate();
+  public Integer getGraphObjectsPerStructure();
+  public ObjectSizeDistribution getGraphObjectSizeDistribution();
+  public Integer getGraphMeanObjectSize();
+  public Integer getGraphSurvivorPercentage();
+  public String getHotCacheSpec();
+  public String getColdCacheSpec();
+  public Integer getTinyLfuCapacityPercentage();
+  public TraceMode getTraceMode();
+  public File getTraceFile();
+  public CoordinationRole getCoordination();
+  public String getCoordinatorHost();
+  public Integer getCoordinatorPort();
+  public Integer getStreamingSummarySize();
+  public ControlTarget getControlTarget();
+  public Double getControlSetpoint();
+  public Double getControlGain();
+  @Nullable public File getLiveSettingsFile();
+  public Integer getAdminPort();
+  public LoadShapeType getLoadShape();
+  public Double getShapeBaseRate();
+  public Double getShapePeakRate();
+  public Double getShapePeriod();
+  public Double getShapeDutyCycle();
+  @Nullable public File getShapeFile();
+  public ArrivalProcess getArrivalProcess();
+  public SlotDistributionType getSlotDistribution();
+  public Double getZipfianExponent();
+  public Integer getHotspotKeyPercentage();
+  public Integer getHotspotTrafficPercentage();
 }
@@ -23,15 +23,10 @@ import com.google.inject.Singleton;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
-import org.reflections.Reflections;
-import org.reflections.scanners.FieldAnnotationsScanner;
-import org.reflections.util.ClasspathHelper;
-import org.reflections.util.ConfigurationBuilder;
-import org.reflections.util.FilterBuilder;
 
-import java.lang.reflect.Field;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -40,8 +35,6 @@ import java.util.Set;
  */
 @Singleton
 public class SettingsProvider implements Provider<Settings> {
-  private static final String PROXIED_FLAGS_PACKAGE_WHITELIST_PREFIX = "org.arbeitspferde";
-
   @Option(
       name = "--rateSlopeConstant",
       aliases = {"--rsc"},
@@ -124,9 +117,309 @@ public class SettingsProvider implements Provider<Settings> {
   @Option(
       name = "--port",
       aliases = {"--p"},
-      usage = "The port to serve listener requests on.")
+      usage = "The port to serve listener requests on; metrics are served at /metrics and " +
+          "/metrics.json.  A negative port disables the endpoint.")
   private Integer port = 8080;
 
+  @Option(
+      name = "--workEngine",
+      aliases = {"--we"},
+      usage = "The kind of work engine workers use: LIST sorts boxed Integers, INT_ARRAY sorts a " +
+          "primitive array in place, OBJECT_GRAPH builds and mutates object graphs and STREAMING " +
+          "generates and sorts one partition at a time")
+  private WorkEngineType workEngine = WorkEngineType.LIST;
+
+  @Option(
+      name = "--maxPartitionParallelism",
+      aliases = {"--mpp"},
+      usage = "The maximum number of partitions of one work item that are sorted concurrently on " +
+          "the shared fork/join pool, which makes one sleep decision per work item instead of one " +
+          "per partition; 1 sorts them sequentially on the worker thread")
+  private Integer maxPartitionParallelism = 1;
+
+  @Option(
+      name = "--workerScheduler",
+      aliases = {"--ws"},
+      usage = "The kind of thread pool work items run on: CACHED grows without bound, " +
+          "BOUNDED and WORK_STEALING use --workerPoolSize threads, VIRTUAL runs each item on a " +
+          "virtual thread (Java 21 or later)")
+  private WorkerSchedulerType workerScheduler = WorkerSchedulerType.CACHED;
+
+  @Option(
+      name = "--workerPoolSize",
+      aliases = {"--wps"},
+      usage = "The number of worker threads of a BOUNDED or WORK_STEALING scheduler")
+  private Integer workerPoolSize = Runtime.getRuntime().availableProcessors();
+
+  @Option(
+      name = "--workerQueueCapacity",
+      aliases = {"--wqc"},
+      usage = "The number of work items a BOUNDED or WORK_STEALING scheduler queues while all of " +
+          "its threads are busy")
+  private Integer workerQueueCapacity = 1000;
+
+  @Option(
+      name = "--rejectionPolicy",
+      aliases = {"--rp"},
+      usage = "What a full BOUNDED or WORK_STEALING scheduler does with a new work item: BLOCK, " +
+          "DROP or CALLER_RUNS")
+  private RejectionPolicy rejectionPolicy = RejectionPolicy.BLOCK;
+
+  @Option(
+      name = "--hotCacheType",
+      aliases = {"--hct"},
+      usage = "The kind of cache used for the hot cache: HARD_REFERENCE, LOCK_FREE, " +
+          "OFF_HEAP, MAPPED_FILE, MAP_MAKER or TINY_LFU")
+  private CacheType hotCacheType = CacheType.HARD_REFERENCE;
+
+  @Option(
+      name = "--coldCacheType",
+      aliases = {"--cct"},
+      usage = "The kind of cache used for the cold cache: HARD_REFERENCE, LOCK_FREE, " +
+          "OFF_HEAP, MAPPED_FILE, MAP_MAKER or TINY_LFU")
+  private CacheType coldCacheType = CacheType.HARD_REFERENCE;
+
+  @Option(
+      name = "--mappedCacheDirectory",
+      aliases = {"--mcd"},
+      usage = "The directory in which MAPPED_FILE caches create their backing files")
+  private File mappedCacheDirectory = new File(System.getProperty("java.io.tmpdir"));
+
+  @Option(
+      name = "--maxArrivalBatch",
+      aliases = {"--mab"},
+      usage = "The most work items the master dispatches back to back before it reads the " +
+          "clock again; arrivals that fall due while it is busy are dispatched in batches of up " +
+          "to this many without sleeping in between")
+  private Integer maxArrivalBatch = 1000;
+
+  @Option(
+      name = "--randomNumberGenerator",
+      aliases = {"--rng"},
+      usage = "The random number generator each work item owns: MERSENNE_TWISTER or SPLIT_MIX, " +
+          "which is cheaper and fills work lists in bulk")
+  private RandomNumberGeneratorType randomNumberGenerator =
+      RandomNumberGeneratorType.MERSENNE_TWISTER;
+
+  @Option(
+      name = "--seed",
+      aliases = {"--sd"},
+      usage = "The master seed that the random number generators of all work items derive " +
+          "from, so that a run can be reproduced; a random seed is chosen and logged if none is " +
+          "given")
+  private Long seed = null;
+
+  @Option(
+      name = "--graphBytesPerWorkItem",
+      aliases = {"--gbw"},
+      usage = "The approximate number of bytes an OBJECT_GRAPH work item allocates")
+  private Integer graphBytesPerWorkItem = 1048576;
+
+  @Option(
+      name = "--graphAllocationRate",
+      aliases = {"--gar"},
+      usage = "The most bytes per second an OBJECT_GRAPH work item allocates, or 0 to allocate " +
+          "as fast as it can")
+  private Integer graphAllocationRate = 0;
+
+  @Option(
+      name = "--graphObjectsPerStructure",
+      aliases = {"--gos"},
+      usage = "The number of objects in each tree, chain, map or array group an OBJECT_GRAPH " +
+          "work item builds")
+  private Integer graphObjectsPerStructure = 256;
+
+  @Option(
+      name = "--graphObjectSizeDistribution",
+      aliases = {"--gsd"},
+      usage = "The distribution of the sizes of payload arrays in object graphs: FIXED, UNIFORM " +
+          "or EXPONENTIAL")
+  private ObjectSizeDistribution graphObjectSizeDistribution =
+      ObjectSizeDistribution.EXPONENTIAL;
+
+  @Option(
+      name = "--graphMeanObjectSize",
+      aliases = {"--gms"},
+      usage = "The mean size in bytes of payload arrays in object graphs")
+  private Integer graphMeanObjectSize = 64;
+
+  @Option(
+      name = "--graphSurvivorPercentage",
+      aliases = {"--gsp"},
+      usage = "The percentage of the structures of a cached OBJECT_GRAPH work item that survive " +
+          "into the cache")
+  private Integer graphSurvivorPercentage = 10;
+
+  @Option(
+      name = "--hotCacheSpec",
+      aliases = {"--hcsp"},
+      usage = "The CacheBuilderSpec of a MAP_MAKER hot cache, such as " +
+          "'softValues,maximumSize=500'; the default bounds it to the hot cache size")
+  private String hotCacheSpec = "";
+
+  @Option(
+      name = "--coldCacheSpec",
+      aliases = {"--ccsp"},
+      usage = "The CacheBuilderSpec of a MAP_MAKER cold cache, such as " +
+          "'weakValues,expireAfterWrite=10m'; the default bounds it to the cold cache size")
+  private String coldCacheSpec = "";
+
+  @Option(
+      name = "--tinyLfuCapacityPercentage",
+      aliases = {"--tlcp"},
+      usage = "The percentage of the indices of a TINY_LFU cache that it retains at most")
+  private Integer tinyLfuCapacityPercentage = 50;
+
+  @Option(
+      name = "--traceMode",
+      aliases = {"--tm"},
+      usage = "Whether work items are generated live (NONE), generated and written to " +
+          "--traceFile (RECORD), or replayed from it at the recorded pace (REPLAY) or as fast as " +
+          "possible (REPLAY_FAST)")
+  private TraceMode traceMode = TraceMode.NONE;
+
+  @Option(
+      name = "--traceFile",
+      aliases = {"--tf"},
+      usage = "The binary trace file that work items are recorded to or replayed from")
+  private File traceFile = new File("workload.trace");
+
+  @Option(
+      name = "--coordination",
+      aliases = {"--co"},
+      usage = "The part this process plays in generating load across several JVMs: STANDALONE, " +
+          "COORDINATOR, which shares the arrival rate out among the workers connected to it, or " +
+          "WORKER, which applies the share its coordinator gives it")
+  private CoordinationRole coordination = CoordinationRole.STANDALONE;
+
+  @Option(
+      name = "--coordinatorHost",
+      aliases = {"--coh"},
+      usage = "The address a COORDINATOR listens on and WORKER processes connect to")
+  private String coordinatorHost = "127.0.0.1";
+
+  @Option(
+      name = "--coordinatorPort",
+      aliases = {"--cop"},
+      usage = "The port a COORDINATOR listens on and WORKER processes connect to")
+  private Integer coordinatorPort = 8090;
+
+  @Option(
+      name = "--streamingSummarySize",
+      aliases = {"--sss"},
+      usage = "The number of the smallest elements of a STREAMING work item's list that it " +
+          "keeps, merged from its sorted partitions, to be cached in place of the list; 0 caches " +
+          "an empty list")
+  private Integer streamingSummarySize = 1000;
+
+  @Option(
+      name = "--controlTarget",
+      aliases = {"--ct"},
+      usage = "What the load controller holds at --controlSetpoint by scaling the arrival rate " +
+          "and cache churn: NONE, OLD_GEN_OCCUPANCY, ALLOCATION_RATE or GC_TIME")
+  private ControlTarget controlTarget = ControlTarget.NONE;
+
+  @Option(
+      name = "--controlSetpoint",
+      aliases = {"--cs"},
+      usage = "The value the load controller holds its target at: a percentage for " +
+          "OLD_GEN_OCCUPANCY and GC_TIME, or megabytes per second for ALLOCATION_RATE")
+  private Double controlSetpoint = 50.0;
+
+  @Option(
+      name = "--controlGain",
+      aliases = {"--cg"},
+      usage = "How strongly the load controller reacts to the relative error of its target " +
+          "each second")
+  private Double controlGain = 0.5;
+
+  @Option(
+      name = "--liveSettingsFile",
+      aliases = {"--lsf"},
+      usage = "A properties file that is watched for changes to the live settings, such as " +
+          "rateSlopeConstant=2.0; unset to not watch any file")
+  private File liveSettingsFile = null;
+
+  @Option(
+      name = "--adminPort",
+      aliases = {"--adp"},
+      usage = "The port on the loopback interface on which the live settings are read and " +
+          "changed with get and set commands; -1 not to listen")
+  private Integer adminPort = -1;
+
+  @Option(
+      name = "--loadShape",
+      aliases = {"--ls"},
+      usage = "The shape of the arrival rate over time: DIURNAL, STEP, RAMP, SPIKE, " +
+          "SQUARE_WAVE or CSV")
+  private LoadShapeType loadShape = LoadShapeType.DIURNAL;
+
+  @Option(
+      name = "--shapeBaseRate",
+      aliases = {"--sbr"},
+      usage = "The arrivals per second that the STEP, RAMP, SPIKE and SQUARE_WAVE load shapes " +
+          "start at")
+  private Double shapeBaseRate = 10.0;
+
+  @Option(
+      name = "--shapePeakRate",
+      aliases = {"--spr"},
+      usage = "The arrivals per second that the STEP, RAMP, SPIKE and SQUARE_WAVE load shapes " +
+          "rise to")
+  private Double shapePeakRate = 100.0;
+
+  @Option(
+      name = "--shapePeriod",
+      aliases = {"--spe"},
+      usage = "The seconds until the STEP and SPIKE load shapes rise, that the RAMP rises over, " +
+          "or that each SQUARE_WAVE cycle lasts")
+  private Double shapePeriod = 60.0;
+
+  @Option(
+      name = "--shapeDutyCycle",
+      aliases = {"--sdc"},
+      usage = "The share, from 0 to 1, of a shape period that the SPIKE and SQUARE_WAVE load " +
+          "shapes spend at the peak rate")
+  private Double shapeDutyCycle = 0.1;
+
+  @Option(
+      name = "--shapeFile",
+      aliases = {"--sf"},
+      usage = "A CSV file of seconds since the start and arrivals per second, which the CSV " +
+          "load shape holds each rate of until the next")
+  private File shapeFile = null;
+
+  @Option(
+      name = "--arrivalProcess",
+      aliases = {"--arp"},
+      usage = "How intervals between arrivals are spread: UNIFORM or POISSON")
+  private ArrivalProcess arrivalProcess = ArrivalProcess.UNIFORM;
+
+  @Option(
+      name = "--slotDistribution",
+      aliases = {"--slds"},
+      usage = "How work items choose cache slots: UNIFORM, ZIPFIAN, HOTSPOT or LATEST")
+  private SlotDistributionType slotDistribution = SlotDistributionType.UNIFORM;
+
+  @Option(
+      name = "--zipfianExponent",
+      aliases = {"--ze"},
+      usage = "The exponent of the ZIPFIAN and LATEST slot distributions; larger is more skewed")
+  private Double zipfianExponent = 0.99;
+
+  @Option(
+      name = "--hotspotKeyPercentage",
+      aliases = {"--hkp"},
+      usage = "The percentage of cache slots that the HOTSPOT slot distribution makes hot")
+  private Integer hotspotKeyPercentage = 20;
+
+  @Option(
+      name = "--hotspotTrafficPercentage",
+      aliases = {"--htp"},
+      usage = "The percentage of cache accesses that the HOTSPOT slot distribution sends to " +
+          "hot slots")
+  private Integer hotspotTrafficPercentage = 80;
+
   private final String[] args;
   private final SupplementalSettingsProcessor supplementalSettingsProcessor;
 
@@ -139,25 +432,12 @@ public class SettingsProvider implements Provider<Settings> {
 
   @Override
   public Settings get() {
-    final Reflections reflections = new Reflections(new ConfigurationBuilder()
-        .filterInputsBy(new FilterBuilder()
-            .include(FilterBuilder.prefix(PROXIED_FLAGS_PACKAGE_WHITELIST_PREFIX)))
-        .setUrls(ClasspathHelper.forPackage(PROXIED_FLAGS_PACKAGE_WHITELIST_PREFIX))
-        .setScanners(new FieldAnnotationsScanner()));
-
-    final Set<String> args4jWhitelist = new HashSet<String>();
-
-    for (final Field field : reflections.getFieldsAnnotatedWith(Option.class)) {
-      final Option optionAnnotation = field.getAnnotation(Option.class);
-      if (optionAnnotation != null) {
-        args4jWhitelist.add(optionAnnotation.name());
-        final String[] aliases = optionAnnotation.aliases();
-        if (aliases != null) {
-          for (final String alias : aliases) {
-            args4jWhitelist.add(alias);
-          }
-        }
-      }
+    final Set<String> args4jWhitelist;
+    try {
+      args4jWhitelist = OptionRegistry.load(SettingsProvider.class.getClassLoader(),
+          SettingsProvider.class);
+    } catch (final IOException e) {
+      throw new ProvisionException("Unable to read " + OptionRegistry.RESOURCE, e);
     }
 
     final List<String> args4jArguments = new ArrayList<String>();
@@ -165,14 +445,10 @@ public class SettingsProvider implements Provider<Settings> {
 
     for (final String argument : args) {
       if (argument.startsWith("--")) {
-        boolean wasAdded = false;
-        for (final String args4jCandidate : args4jWhitelist) {
-          if (!wasAdded && argument.startsWith(args4jCandidate)) {
-            args4jArguments.add(argument);
-            wasAdded = true;
-          }
-        }
-        if (!wasAdded) {
+        final int eq = argument.indexOf('=');
+        if (args4jWhitelist.contains(eq > 0 ? argument.substring(0, eq) : argument)) {
+          args4jArguments.add(argument);
+        } else {
           unmatchedArguments.add(argument);
         }
       }
@@ -284,6 +560,221 @@ public class SettingsProvider implements Provider<Settings> {
       public Integer getPort() {
         return port;
       }
+
+      @Override
+      public WorkEngineType getWorkEngine() {
+        return workEngine;
+      }
+
+      @Override
+      public Integer getMaxPartitionParallelism() {
+        return maxPartitionParallelism;
+      }
+
+      @Override
+      public WorkerSchedulerType getWorkerScheduler() {
+        return workerScheduler;
+      }
+
+      @Override
+      public Integer getWorkerPoolSize() {
+        return workerPoolSize;
+      }
+
+      @Override
+      public Integer getWorkerQueueCapacity() {
+        return workerQueueCapacity;
+      }
+
+      @Override
+      public RejectionPolicy getRejectionPolicy() {
+        return rejectionPolicy;
+      }
+
+      @Override
+      public CacheType getHotCacheType() {
+        return hotCacheType;
+      }
+
+      @Override
+      public CacheType getColdCacheType() {
+        return coldCacheType;
+      }
+
+      @Override
+      public File getMappedCacheDirectory() {
+        return mappedCacheDirectory;
+      }
+
+      @Override
+      public Integer getMaxArrivalBatch() {
+        return maxArrivalBatch;
+      }
+
+      @Override
+      public RandomNumberGeneratorType getRandomNumberGenerator() {
+        return randomNumberGenerator;
+      }
+
+      @Override
+      public Long getSeed() {
+        return seed;
+      }
+
+      @Override
+      public Integer getGraphBytesPerWorkItem() {
+        return graphBytesPerWorkItem;
+      }
+
+      @Override
+      public Integer getGraphAllocationRate() {
+        return graphAllocationRate;
+      }
+
+      @Override
+      public Integer getGraphObjectsPerStructure() {
+        return graphObjectsPerStructure;
+      }
+
+      @Override
+      public ObjectSizeDistribution getGraphObjectSizeDistribution() {
+        return graphObjectSizeDistribution;
+      }
+
+      @Override
+      public Integer getGraphMeanObjectSize() {
+        return graphMeanObjectSize;
+      }
+
+      @Override
+      public Integer getGraphSurvivorPercentage() {
+        return graphSurvivorPercentage;
+      }
+
+      @Override
+      public String getHotCacheSpec() {
+        return hotCacheSpec;
+      }
+
+      @Override
+      public String getColdCacheSpec() {
+        return coldCacheSpec;
+      }
+
+      @Override
+      public Integer getTinyLfuCapacityPercentage() {
+        return tinyLfuCapacityPercentage;
+      }
+
+      @Override
+      public TraceMode getTraceMode() {
+        return traceMode;
+      }
+
+      @Override
+      public File getTraceFile() {
+        return traceFile;
+      }
+
+      @Override
+      public CoordinationRole getCoordination() {
+        return coordination;
+      }
+
+      @Override
+      public String getCoordinatorHost() {
+        return coordinatorHost;
+      }
+
+      @Override
+      public Integer getCoordinatorPort() {
+        return coordinatorPort;
+      }
+
+      @Override
+      public Integer getStreamingSummarySize() {
+        return streamingSummarySize;
+      }
+
+      @Override
+      public ControlTarget getControlTarget() {
+        return controlTarget;
+      }
+
+      @Override
+      public Double getControlSetpoint() {
+        return controlSetpoint;
+      }
+
+      @Override
+      public Double getControlGain() {
+        return controlGain;
+      }
+
+      @Override
+      public File getLiveSettingsFile() {
+        return liveSettingsFile;
+      }
+
+      @Override
+      public Integer getAdminPort() {
+        return adminPort;
+      }
+
+      @Override
+      public LoadShapeType getLoadShape() {
+        return loadShape;
+      }
+
+      @Override
+      public Double getShapeBaseRate() {
+        return shapeBaseRate;
+      }
+
+      @Override
+      public Double getShapePeakRate() {
+        return shapePeakRate;
+      }
+
+      @Override
+      public Double getShapePeriod() {
+        return shapePeriod;
+      }
+
+      @Override
+      public Double getShapeDutyCycle() {
+        return shapeDutyCycle;
+      }
+
+      @Override
+      public File getShapeFile() {
+        return shapeFile;
+      }
+
+      @Override
+      public ArrivalProcess getArrivalProcess() {
+        return arrivalProcess;
+      }
+
+      @Override
+      public SlotDistributionType getSlotDistribution() {
+        return slotDistribution;
+      }
+
+      @Override
+      public Double getZipfianExponent() {
+        return zipfianExponent;
+      }
+
+      @Override
+      public Integer getHotspotKeyPercentage() {
+        return hotspotKeyPercentage;
+      }
+
+      @Override
+      public Integer getHotspotTrafficPercentage() {
+        return hotspotTrafficPercentage;
+      }
     };
   }
 }
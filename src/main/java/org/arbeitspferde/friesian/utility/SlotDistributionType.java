@@ -0,0 +1,36 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian.utility;
+
+/**
+ * How work items choose the slot of a cache that they read and write.
+ */
+public enum SlotDistributionType {
+  /** Every slot is equally likely. */
+  UNIFORM,
+
+  /** The slot of rank k is chosen in proportion to 1 / k^s, for the configured exponent s. */
+  ZIPFIAN,
+
+  /** A configured share of the slots receives a configured share of the accesses. */
+  HOTSPOT,
+
+  /**
+   * The slots written most recently are the most likely, Zipfian in how long ago they were written,
+   * with the configured exponent.
+   */
+  LATEST
+}
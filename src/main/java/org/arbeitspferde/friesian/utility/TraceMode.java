@@ -0,0 +1,33 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian.utility;
+
+/**
+ * Whether the workload is generated live, recorded to a trace or replayed from one.
+ */
+public enum TraceMode {
+  /** Work items are generated live and not recorded. */
+  NONE,
+
+  /** Work items are generated live and every one of them is recorded to the trace file. */
+  RECORD,
+
+  /** Work items are replayed from the trace file at the pace they were recorded at. */
+  REPLAY,
+
+  /** Work items are replayed from the trace file as fast as the workers accept them. */
+  REPLAY_FAST
+}
@@ -0,0 +1,33 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian.utility;
+
+/**
+ * The kinds of work engine that workers may be built from.
+ */
+public enum WorkEngineType {
+  /** Sorts partitions of a list of boxed {@link Integer} values. */
+  LIST,
+
+  /** Sorts partitions of a primitive int array in place. */
+  INT_ARRAY,
+
+  /** Builds and mutates trees, chains, string-keyed maps and arrays of mixed sizes. */
+  OBJECT_GRAPH,
+
+  /** Generates, sorts and releases one partition at a time, keeping only a merged summary. */
+  STREAMING
+}
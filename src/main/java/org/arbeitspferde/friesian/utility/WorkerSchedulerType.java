@@ -0,0 +1,36 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian.utility;
+
+/**
+ * The kinds of thread pool that work items may be scheduled on.
+ */
+public enum WorkerSchedulerType {
+  /** An unbounded pool that creates a new thread whenever none is idle. */
+  CACHED,
+
+  /** A fixed number of threads that take work items from a shared queue. */
+  BOUNDED,
+
+  /** A fixed number of threads that each have their own deque and steal from each other. */
+  WORK_STEALING,
+
+  /**
+   * A new virtual thread per work item, so that a sleeping worker does not hold a platform thread.
+   * Requires Java 21 or later at runtime.
+   */
+  VIRTUAL
+}
@@ -0,0 +1,80 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link LoadShapes}.
+ */
+public class LoadShapesTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private ArrivalScheduler.ArrivalRate schedule(final String contents) throws IOException {
+    final File file = folder.newFile("schedule.csv");
+    Files.write(contents, file, Charsets.UTF_8);
+    return LoadShapes.schedule(file);
+  }
+
+  private static long seconds(final long seconds) {
+    return TimeUnit.SECONDS.toNanos(seconds);
+  }
+
+  @Test
+  public void testScheduleHoldsEachRateUntilTheNext() throws IOException {
+    final ArrivalScheduler.ArrivalRate rate = schedule("10,100\n20,200\n");
+
+    assertEquals(100.0, rate.getArrivalsPerSecond(0), 0.0);
+    assertEquals(100.0, rate.getArrivalsPerSecond(seconds(15)), 0.0);
+    assertEquals(200.0, rate.getArrivalsPerSecond(seconds(20)), 0.0);
+    assertEquals(200.0, rate.getArrivalsPerSecond(seconds(1000)), 0.0);
+  }
+
+  @Test
+  public void testScheduleSkipsHeaderCommentsAndBlankLines() throws IOException {
+    final ArrivalScheduler.ArrivalRate rate =
+        schedule("# from production\n\nseconds,arrivals\n0,50\n\n30,75\n");
+
+    assertEquals(50.0, rate.getArrivalsPerSecond(seconds(10)), 0.0);
+    assertEquals(75.0, rate.getArrivalsPerSecond(seconds(30)), 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testScheduleRejectsMalformedFirstRowAfterHeader() throws IOException {
+    schedule("seconds,arrivals\n0,1O0\n10,200\n");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testScheduleRejectsMalformedLaterRow() throws IOException {
+    schedule("seconds,arrivals\n0,100\n10,2O0\n");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testScheduleRejectsDescendingTimes() throws IOException {
+    schedule("10,100\n5,200\n");
+  }
+}
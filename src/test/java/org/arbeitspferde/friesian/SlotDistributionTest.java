@@ -0,0 +1,136 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Tests for {@link SlotDistribution}.
+ */
+public class SlotDistributionTest {
+  private static final int SAMPLES = 200000;
+
+  /** Returns how often each slot was chosen, as a fraction of all samples */
+  private static double[] frequencies(final SlotDistribution distribution, final int size) {
+    final Random rng = new Random(42);
+    final int[] counts = new int[size];
+    for (int i = 0; i < SAMPLES; i++) {
+      final int slot = distribution.next(rng);
+      assertTrue("slot " + slot + " is out of range", slot >= 0 && slot < size);
+      counts[slot]++;
+    }
+    final double[] frequencies = new double[size];
+    for (int slot = 0; slot < size; slot++) {
+      frequencies[slot] = (double) counts[slot] / SAMPLES;
+    }
+    return frequencies;
+  }
+
+  /** Returns the sum of the frequencies from the first slot inclusive to the last exclusive */
+  private static double sum(final double[] frequencies, final int first, final int last) {
+    double sum = 0.0;
+    for (int slot = first; slot < last; slot++) {
+      sum += frequencies[slot];
+    }
+    return sum;
+  }
+
+  /** Returns the probability of each rank, from 1 to size, in proportion to 1 / k^exponent */
+  private static double[] zipfProbabilities(final int size, final double exponent) {
+    final double[] probabilities = new double[size];
+    double sum = 0.0;
+    for (int k = 1; k <= size; k++) {
+      probabilities[k - 1] = 1.0 / Math.pow(k, exponent);
+      sum += probabilities[k - 1];
+    }
+    for (int k = 1; k <= size; k++) {
+      probabilities[k - 1] /= sum;
+    }
+    return probabilities;
+  }
+
+  private static void assertZipfian(final int size, final double exponent) {
+    final double[] expected = zipfProbabilities(size, exponent);
+    final double[] actual = frequencies(SlotDistribution.zipfian(size, exponent), size);
+    for (int slot = 0; slot < size; slot++) {
+      assertEquals("slot " + slot + " at exponent " + exponent,
+          expected[slot], actual[slot], 0.005 + 0.05 * expected[slot]);
+    }
+  }
+
+  @Test
+  public void testZipfianMatchesRankProbabilities() {
+    assertZipfian(100, 0.5);
+    assertZipfian(100, 0.99);
+    assertZipfian(100, 1.0);
+    assertZipfian(100, 1.5);
+  }
+
+  @Test
+  public void testZipfianOfOneSlot() {
+    final SlotDistribution distribution = SlotDistribution.zipfian(1, 0.99);
+    final Random rng = new Random(42);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(0, distribution.next(rng));
+    }
+  }
+
+  @Test
+  public void testHotspotSplitsTraffic() {
+    final int size = 1000;
+    final double[] actual = frequencies(SlotDistribution.hotspot(size, 20, 80), size);
+    assertEquals(0.8, sum(actual, 0, 200), 0.01);
+
+    // Each share is spread evenly over its slots, so each half of them takes half of it.
+    assertEquals(0.4, sum(actual, 0, 100), 0.01);
+    assertEquals(0.1, sum(actual, 200, 600), 0.01);
+    assertEquals(0.1, sum(actual, 600, 1000), 0.01);
+  }
+
+  @Test
+  public void testHotspotOfAllSlotsIsUniform() {
+    final int size = 50;
+    final double[] actual = frequencies(SlotDistribution.hotspot(size, 100, 80), size);
+    for (int slot = 0; slot < size; slot++) {
+      assertEquals("slot " + slot, 1.0 / size, actual[slot], 0.2 / size);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testHotspotRejectsPercentageAbove100() {
+    SlotDistribution.hotspot(10, 20, 101);
+  }
+
+  @Test
+  public void testLatestFollowsWrites() {
+    final int size = 100;
+    final SlotDistribution distribution = SlotDistribution.latest(size, 1.0);
+    distribution.written(1);
+    final double[] expected = zipfProbabilities(size, 1.0);
+    final double[] actual = frequencies(distribution, size);
+
+    // Rank k is the slot written k - 1 writes before slot 1, wrapping around to the last slots.
+    for (int k = 1; k <= size; k++) {
+      final int slot = (1 - (k - 1) + size) % size;
+      assertEquals("rank " + k, expected[k - 1], actual[slot], 0.005 + 0.05 * expected[k - 1]);
+    }
+  }
+}
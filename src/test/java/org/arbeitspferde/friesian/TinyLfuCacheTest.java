@@ -0,0 +1,120 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link TinyLfuCache}.
+ */
+public class TinyLfuCacheTest {
+  /** Read and then write the key, as the work engines access a slot */
+  private static void access(final TinyLfuCache<String> cache, final int key) {
+    cache.get(key);
+    cache.update(key, "value " + key);
+  }
+
+  @Test
+  public void testHitAndMissStats() {
+    final TinyLfuCache<String> cache = new TinyLfuCache<String>(10, 4);
+
+    assertEquals(1.0, cache.getHitRate(), 0.0);
+    assertNull(cache.get(3));
+    cache.update(3, "three");
+    assertEquals("three", cache.get(3));
+    assertEquals("three", cache.get(3));
+    assertNull(cache.get(4));
+
+    assertEquals(2, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(0.5, cache.getHitRate(), 0.0);
+  }
+
+  @Test
+  public void testUpdateReplacesValue() {
+    final TinyLfuCache<String> cache = new TinyLfuCache<String>(10, 4);
+    cache.update(1, "old");
+    cache.update(1, "new");
+
+    assertEquals("new", cache.get(1));
+    assertEquals(1, cache.getRetainedSize());
+  }
+
+  @Test
+  public void testEvictionBoundsRetainedSize() {
+    final TinyLfuCache<String> cache = new TinyLfuCache<String>(1000, 100);
+    for (int key = 0; key < 1000; key++) {
+      access(cache, key);
+      assertTrue(cache.getRetainedSize() <= 100);
+    }
+
+    assertEquals(100, cache.getRetainedSize());
+    assertEquals(900, cache.getEvictionCount());
+    assertEquals(cache.getEvictionCount(), cache.getAdmissionCount() + cache.getRejectionCount());
+  }
+
+  @Test
+  public void testPopularEntriesSurviveScan() {
+    final TinyLfuCache<String> cache = new TinyLfuCache<String>(10000, 100);
+    for (int key = 0; key < 100; key++) {
+      access(cache, key);
+    }
+    for (int round = 0; round < 3; round++) {
+      for (int key = 0; key < 50; key++) {
+        access(cache, key);
+      }
+    }
+    for (int key = 1000; key < 1300; key++) {
+      access(cache, key);
+    }
+
+    assertTrue(cache.getRejectionCount() > 0);
+    for (int key = 0; key < 50; key++) {
+      assertEquals("value " + key, cache.get(key));
+    }
+  }
+
+  @Test
+  public void testHitIsCountedOnce() {
+    // A window of one entry and a main space of one entry.
+    final TinyLfuCache<String> cache = new TinyLfuCache<String>(100, 2);
+    final int victim = 1;
+    final int candidate = 2;
+
+    // The victim is inserted and then hit once, an estimated frequency of 2.
+    access(cache, victim);
+    access(cache, victim);
+    // The candidate pushes the victim into the main space, and is itself rejected twice for
+    // fillers, for an estimated frequency of 3 once it is inserted for the third time.
+    access(cache, candidate);
+    access(cache, 10);
+    access(cache, candidate);
+    access(cache, 11);
+    access(cache, candidate);
+    assertEquals(0, cache.getAdmissionCount());
+
+    // Were the victim's hit counted both when it was read and when it was written, it would tie
+    // with the candidate and be kept.
+    access(cache, 12);
+    assertEquals(1, cache.getAdmissionCount());
+    assertEquals("value " + candidate, cache.get(candidate));
+    assertNull(cache.get(victim));
+  }
+}
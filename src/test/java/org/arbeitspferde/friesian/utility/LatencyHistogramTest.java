@@ -0,0 +1,118 @@
+/* Copyright 2012 Google, Inc.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.arbeitspferde.friesian.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+  /** The widest a bucket may be, relative to the smallest value it holds */
+  private static final double RELATIVE_ERROR = 1.0 / 64;
+
+  @Test
+  public void testEmptyHistogram() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMax());
+    assertEquals(0, histogram.getValueAtPercentile(50.0));
+    assertEquals(0, histogram.getValueAtPercentile(100.0));
+  }
+
+  @Test
+  public void testNegativeDurationsCountAsZero() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+
+    assertEquals(1, histogram.getCount());
+    assertEquals(0, histogram.getMax());
+    assertEquals(0, histogram.getValueAtPercentile(100.0));
+  }
+
+  @Test
+  public void testSmallValuesAreExact() {
+    for (long value = 0; value < 128; value++) {
+      final LatencyHistogram histogram = new LatencyHistogram();
+      histogram.record(value);
+      histogram.record(Long.MAX_VALUE);
+
+      assertEquals(value, histogram.getValueAtPercentile(50.0));
+    }
+  }
+
+  @Test
+  public void testBucketBoundaries() {
+    for (int power = 7; power < Long.SIZE - 1; power++) {
+      final long boundary = 1L << power;
+      for (final long value : new long[] {boundary - 1, boundary, boundary + 1}) {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(value);
+        histogram.record(Long.MAX_VALUE);
+
+        final long reported = histogram.getValueAtPercentile(50.0);
+        assertTrue(value + " was reported as " + reported, reported >= value);
+        assertTrue(value + " was reported as " + reported,
+            reported - value <= value * RELATIVE_ERROR);
+      }
+    }
+  }
+
+  @Test
+  public void testValuesInOneBucketAreReportedAlike() {
+    final LatencyHistogram low = new LatencyHistogram();
+    low.record(1024);
+    low.record(Long.MAX_VALUE);
+    final LatencyHistogram high = new LatencyHistogram();
+    high.record(1039);
+    high.record(Long.MAX_VALUE);
+    final LatencyHistogram next = new LatencyHistogram();
+    next.record(1040);
+    next.record(Long.MAX_VALUE);
+
+    assertEquals(1039, low.getValueAtPercentile(50.0));
+    assertEquals(1039, high.getValueAtPercentile(50.0));
+    assertEquals(1055, next.getValueAtPercentile(50.0));
+  }
+
+  @Test
+  public void testPercentileAccuracy() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value <= 100000; value++) {
+      histogram.record(value * 1000);
+    }
+
+    assertEquals(100000, histogram.getCount());
+    assertEquals(100000000, histogram.getMax());
+    for (final double percentile : new double[] {1.0, 25.0, 50.0, 90.0, 99.0, 99.9}) {
+      final long expected = (long) (percentile * 1000) * 1000;
+      final long reported = histogram.getValueAtPercentile(percentile);
+      assertTrue(percentile + " was reported as " + reported, reported >= expected);
+      assertTrue(percentile + " was reported as " + reported,
+          reported - expected <= expected * RELATIVE_ERROR);
+    }
+    assertEquals(100000000, histogram.getValueAtPercentile(100.0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPercentileOutOfRange() {
+    new LatencyHistogram().getValueAtPercentile(100.5);
+  }
+}